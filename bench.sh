@@ -0,0 +1,6 @@
+#!/bin/bash
+
+set -e
+mvn -q install -DskipTests
+(cd benchmarks && mvn -q package)
+java -jar benchmarks/target/benchmarks.jar "$@"
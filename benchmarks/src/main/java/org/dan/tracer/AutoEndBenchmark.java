@@ -0,0 +1,83 @@
+package org.dan.tracer;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.dan.tracer.LogGenerator.DEFAULT_START;
+import static org.dan.tracer.LogLineParser.NULL_SPAN;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+
+// requests are spread over the expiry window
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AutoEndBenchmark {
+    private static final long WINDOW_MS = MINUTES.toMillis(3);
+
+    @State(Scope.Thread)
+    public static class Live {
+        @Param({"10000", "100000", "1000000"})
+        public int requests;
+
+        RequestRepo repo;
+
+        @Setup(Level.Trial)
+        public void fill() {
+            repo = AutoEndBenchmark.fill(requests);
+            repo.autoEnd(DEFAULT_START + WINDOW_MS, WINDOW_MS);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Expired {
+        @Param({"10000", "100000"})
+        public int requests;
+
+        RequestRepo repo;
+
+        @Setup(Level.Invocation)
+        public void fill() {
+            repo = AutoEndBenchmark.fill(requests);
+        }
+    }
+
+    static RequestRepo fill(int requests) {
+        final Dictionary dictionary = Dictionary.create();
+        final int serviceId = dictionary.add(ByteBuffer.wrap("service1".getBytes()));
+        final RequestRepo repo = new RequestRepo(dictionary, new NullChannel(),
+                ByteBuffer.allocateDirect(1 << 20).order(LITTLE_ENDIAN));
+        for (int i = 0; i < requests; ++i) {
+            final long ended = DEFAULT_START + i * WINDOW_MS / requests;
+            repo.line(serviceId, i, ended - 10, ended, NULL_SPAN, i);
+        }
+        return repo;
+    }
+
+    @Benchmark
+    public RequestRepo checkNothingDue(Live live) {
+        live.repo.autoEnd(DEFAULT_START + WINDOW_MS, WINDOW_MS);
+        return live.repo;
+    }
+
+    @Benchmark
+    public RequestRepo expireAll(Expired expired) {
+        expired.repo.autoEnd(DEFAULT_START + WINDOW_MS, 0);
+        return expired.repo;
+    }
+}
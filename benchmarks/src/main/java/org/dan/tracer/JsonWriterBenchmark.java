@@ -0,0 +1,74 @@
+package org.dan.tracer;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.dan.tracer.LogGenerator.DEFAULT_START;
+import static org.dan.tracer.LogLineParser.NULL_SPAN;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonWriterBenchmark {
+    @Param({"3", "30"})
+    public int fanOut;
+
+    @Param({"false", "true"})
+    public boolean columnar;
+
+    private final NullChannel outputCh = new NullChannel();
+    private final ByteBuffer outputBuf = ByteBuffer.allocateDirect(1 << 20).order(LITTLE_ENDIAN);
+    private Dictionary dictionary;
+    private Request request;
+    private long time = DEFAULT_START;
+
+    @Setup
+    public void setUp() {
+        dictionary = Dictionary.create();
+        for (int i = 1; i <= 10; ++i) {
+            dictionary.add(ByteBuffer.wrap(("service" + i).getBytes()));
+        }
+        request = columnar
+                ? new SlabRequest(1, new SpanSlabs())
+                : new Request(1);
+        request.addLine(1, DEFAULT_START, DEFAULT_START + 1000, NULL_SPAN, 1);
+        long span = 2;
+        for (int i = 0; i < fanOut; ++i) {
+            final long child = span++;
+            request.addLine(1 + i % 10, DEFAULT_START + i, DEFAULT_START + 500 + i, 1, child);
+            for (int j = 0; j < 2; ++j) {
+                request.addLine(1 + j, DEFAULT_START + i + j, DEFAULT_START + 100 + i,
+                        child, span++);
+            }
+        }
+    }
+
+    @Benchmark
+    public int writeRequest() {
+        outputBuf.clear();
+        return request.writeAsJson(outputCh, outputBuf, dictionary);
+    }
+
+    @Benchmark
+    public int writeDateTime() {
+        outputBuf.clear();
+        LogLineParser.writeDateTime(outputBuf, time += 7);
+        return outputBuf.position();
+    }
+}
@@ -0,0 +1,68 @@
+package org.dan.tracer;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogLineParserBenchmark {
+    private static final int LINES = 10000;
+
+    @Param({"20", "1000"})
+    public int services;
+
+    private ByteBuffer input;
+    private LogLineParser parser;
+    private long lines;
+
+    @Setup
+    public void setUp() {
+        final ByteBuffer generated = new LogGenerator(1, 1000, 10, services)
+                .generate(LINES);
+        input = ByteBuffer.allocateDirect(generated.remaining()).order(LITTLE_ENDIAN);
+        input.put(generated).flip();
+        parser = new LogLineParser(Dictionary.create(), new RequestRepo(null, null, null) {
+            @Override
+            public void line(int serviceId, long requestId, long started,
+                    long ended, long callerSnapId, long snapId) {
+                ++lines;
+            }
+        });
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public long parse() {
+        input.rewind();
+        long last = 0;
+        while (input.hasRemaining()) {
+            last = parser.parse(input);
+        }
+        return last + lines;
+    }
+
+    @Benchmark
+    public long readTimeStamp() {
+        input.position(0);
+        return LogLineParser.readTimeStamp(input);
+    }
+}
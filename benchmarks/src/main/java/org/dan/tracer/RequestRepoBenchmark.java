@@ -0,0 +1,90 @@
+package org.dan.tracer;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+
+// lines are parsed once and replayed into a fresh repo on every invocation
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestRepoBenchmark {
+    private static final int LINES = 100000;
+
+    @Param({"3", "10", "50"})
+    public int spansPerRequest;
+
+    @Param({"1000"})
+    public int liveRequests;
+
+    @Param({"false", "true"})
+    public boolean columnar;
+
+    private final int[] serviceIds = new int[LINES];
+    private final long[] requestIds = new long[LINES];
+    private final long[] started = new long[LINES];
+    private final long[] ended = new long[LINES];
+    private final long[] callers = new long[LINES];
+    private final long[] spans = new long[LINES];
+    private Dictionary dictionary;
+    private RequestRepo repo;
+
+    @Setup(Level.Trial)
+    public void parse() {
+        dictionary = Dictionary.create();
+        final int[] n = new int[1];
+        final LogLineParser parser = new LogLineParser(dictionary, new RequestRepo(null, null, null) {
+            @Override
+            public void line(int serviceId, long requestId, long started,
+                    long ended, long callerSnapId, long snapId) {
+                final int i = n[0]++;
+                serviceIds[i] = serviceId;
+                requestIds[i] = requestId;
+                RequestRepoBenchmark.this.started[i] = started;
+                RequestRepoBenchmark.this.ended[i] = ended;
+                callers[i] = callerSnapId;
+                spans[i] = snapId;
+            }
+        });
+        final ByteBuffer input = new LogGenerator(1, liveRequests, spansPerRequest, 50)
+                .generate(LINES);
+        while (input.hasRemaining()) {
+            parser.parse(input);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void newRepo() {
+        repo = new RequestRepo(dictionary, new NullChannel(),
+                ByteBuffer.allocateDirect(1 << 20).order(LITTLE_ENDIAN),
+                columnar ? new SpanSlabs() : null);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public RequestRepo line() {
+        for (int i = 0; i < LINES; ++i) {
+            repo.line(serviceIds[i], requestIds[i], started[i], ended[i],
+                    callers[i], spans[i]);
+        }
+        return repo;
+    }
+}
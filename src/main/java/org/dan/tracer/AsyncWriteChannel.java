@@ -0,0 +1,151 @@
+package org.dan.tracer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// parser fills one buffer while writer thread drains others into delegate;
+// parser waits for a free buffer if delegate is slower
+public class AsyncWriteChannel implements WritableByteChannel, Flushable {
+    private static final Logger logger = LoggerFactory.getLogger(AsyncWriteChannel.class);
+    private static final ByteBuffer END_OF_OUTPUT = ByteBuffer.allocate(0);
+
+    private final WritableByteChannel outputCh;
+    private final BlockingQueue<ByteBuffer> filled;
+    private final BlockingQueue<ByteBuffer> free;
+    private final Thread writer;
+    // flushed whenever writer catches up, null if bytes may wait in it
+    private final Flushable sink;
+    private volatile IOException failure;
+    private ByteBuffer buffer;
+    private boolean open = true;
+    private Metrics.Counters counters = Metrics.detached();
+
+    public AsyncWriteChannel(WritableByteChannel outputCh, int bufferBytes, int buffers) {
+        this(outputCh, null, bufferBytes, buffers);
+    }
+
+    public AsyncWriteChannel(WritableByteChannel outputCh, Flushable sink,
+            int bufferBytes, int buffers) {
+        this.outputCh = outputCh;
+        this.sink = sink;
+        filled = new ArrayBlockingQueue<>(buffers + 1);
+        free = new ArrayBlockingQueue<>(buffers);
+        for (int i = 1; i < buffers; ++i) {
+            free.add(ByteBuffer.allocateDirect(bufferBytes));
+        }
+        buffer = ByteBuffer.allocateDirect(bufferBytes);
+        writer = new Thread(this::drain, "writer");
+        writer.start();
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                final ByteBuffer filledBuf = filled.take();
+                if (filledBuf == END_OF_OUTPUT) {
+                    break;
+                }
+                if (failure == null) {
+                    try {
+                        while (filledBuf.hasRemaining()) {
+                            outputCh.write(filledBuf);
+                        }
+                        if (sink != null && filled.isEmpty()) {
+                            sink.flush();
+                        }
+                    } catch (IOException e) {
+                        logger.error("Failed to write output", e);
+                        failure = e;
+                    }
+                }
+                filledBuf.clear();
+                free.put(filledBuf);
+            }
+        } catch (InterruptedException e) {
+            logger.error("Writer is interrupted", e);
+            failure = new IOException(e);
+        }
+    }
+
+    public int write(ByteBuffer src) throws IOException {
+        checkFailure();
+        final int written = src.remaining();
+        while (src.hasRemaining()) {
+            if (!buffer.hasRemaining()) {
+                send();
+            }
+            if (src.remaining() <= buffer.remaining()) {
+                buffer.put(src);
+            } else {
+                final int limit = src.limit();
+                src.limit(src.position() + buffer.remaining());
+                buffer.put(src);
+                src.limit(limit);
+            }
+        }
+        return written;
+    }
+
+    private void send() throws IOException {
+        buffer.flip();
+        try {
+            filled.put(buffer);
+            buffer = free.poll();
+            if (buffer == null) {
+                counters.add(Metrics.OUTPUT_STALLS, 1);
+                buffer = free.take();
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+        checkFailure();
+    }
+
+    // stalls of parser waiting for writer
+    public void setCounters(Metrics.Counters counters) {
+        this.counters = counters;
+    }
+
+    // hands over buffered bytes without waiting for them to be written
+    public void flush() throws IOException {
+        checkFailure();
+        if (buffer.position() > 0) {
+            send();
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    public void close() throws IOException {
+        if (!open) {
+            return;
+        }
+        open = false;
+        try {
+            buffer.flip();
+            filled.put(buffer);
+            filled.put(END_OF_OUTPUT);
+            writer.join();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } finally {
+            outputCh.close();
+        }
+        checkFailure();
+    }
+}
@@ -0,0 +1,129 @@
+package org.dan.tracer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+// stream: MAGIC, then records
+// service: SERVICE_RECORD dictionary:varint id:varint length:varint name
+// request: REQUEST_RECORD dictionary:varint id:8 root span
+// span: id:8 serviceId<<1|hasChildren:varint
+//       start-parentStart:zigzag end-start:zigzag
+//       [MORE_CHILDREN span]* NO_MORE_CHILDREN if hasChildren
+// services of a dictionary are defined before first request using them;
+// each shard has own dictionary
+public class BinaryTraceWriter extends TraceWriter {
+    static final byte[] MAGIC = "TRB1".getBytes();
+    static final byte SERVICE_RECORD = 'S';
+    static final byte REQUEST_RECORD = 'R';
+    static final byte NO_MORE_CHILDREN = 0;
+    static final byte MORE_CHILDREN = 1;
+    private static final int MAX_VARINT_BYTES = 10;
+    private static final int MAX_SPAN_BYTES = 1 + 8 + 3 * MAX_VARINT_BYTES;
+
+    private final WritableByteChannel outputCh;
+    private final ByteBuffer outputBuf;
+    private final Dictionary serviceDictionary;
+    private final int dictionaryId;
+    private long[] starts = new long[16];
+    private int depth;
+    private int definedServices;
+
+    public BinaryTraceWriter(WritableByteChannel outputCh, ByteBuffer outputBuf,
+            Dictionary serviceDictionary, int dictionaryId) {
+        this.outputCh = outputCh;
+        this.outputBuf = outputBuf;
+        this.serviceDictionary = serviceDictionary;
+        this.dictionaryId = dictionaryId;
+    }
+
+    public static void writeHeader(WritableByteChannel outputCh) throws IOException {
+        final ByteBuffer magic = ByteBuffer.wrap(MAGIC);
+        while (magic.hasRemaining()) {
+            outputCh.write(magic);
+        }
+    }
+
+    private void ensureSpace(int minFreeSpace) {
+        JsonTraceWriter.ensureSpace(minFreeSpace, outputCh, outputBuf);
+    }
+
+    @Override
+    public void beginRequest(long requestId) {
+        while (definedServices < serviceDictionary.size()) {
+            defineService(++definedServices);
+        }
+        ensureSpace(1 + MAX_VARINT_BYTES + 8);
+        outputBuf.put(REQUEST_RECORD);
+        putVarLong(outputBuf, dictionaryId);
+        outputBuf.putLong(requestId);
+        depth = 0;
+    }
+
+    private void defineService(int serviceId) {
+        final byte[] name = serviceDictionary.getById(serviceId).array();
+        ensureSpace(1 + 3 * MAX_VARINT_BYTES);
+        outputBuf.put(SERVICE_RECORD);
+        putVarLong(outputBuf, dictionaryId);
+        putVarLong(outputBuf, serviceId);
+        putVarLong(outputBuf, name.length);
+        int offset = 0;
+        while (offset < name.length) {
+            ensureSpace(1);
+            final int length = Math.min(outputBuf.remaining(), name.length - offset);
+            outputBuf.put(name, offset, length);
+            offset += length;
+        }
+    }
+
+    @Override
+    public void endRequest() {
+    }
+
+    @Override
+    protected void beginSpan(long spanId, long started, long ended,
+            int serviceId, boolean hasChildren, boolean first) {
+        ensureSpace(MAX_SPAN_BYTES);
+        final long parentStarted;
+        if (depth == 0) {
+            parentStarted = 0;
+        } else {
+            outputBuf.put(MORE_CHILDREN);
+            parentStarted = starts[depth - 1];
+        }
+        outputBuf.putLong(spanId);
+        putVarLong(outputBuf, (long) serviceId << 1 | (hasChildren ? 1 : 0));
+        putVarLong(outputBuf, zigZag(started - parentStarted));
+        putVarLong(outputBuf, zigZag(ended - started));
+        if (depth == starts.length) {
+            starts = Arrays.copyOf(starts, depth * 2);
+        }
+        starts[depth++] = started;
+    }
+
+    @Override
+    protected void endSpan(boolean hasChildren) {
+        --depth;
+        if (hasChildren) {
+            ensureSpace(1);
+            outputBuf.put(NO_MORE_CHILDREN);
+        }
+    }
+
+    static void putVarLong(ByteBuffer out, long n) {
+        while ((n & ~0x7fL) != 0) {
+            out.put((byte) (n & 0x7f | 0x80));
+            n >>>= 7;
+        }
+        out.put((byte) n);
+    }
+
+    static long zigZag(long n) {
+        return (n << 1) ^ (n >> 63);
+    }
+
+    static long unZigZag(long n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+}
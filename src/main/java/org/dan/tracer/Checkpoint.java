@@ -0,0 +1,220 @@
+package org.dan.tracer;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+// file: MAGIC inputOffset:8 logTime:8 searchNewLine:1
+//       services:4 [length:4 name]* lines:8 [requestId:8 spill file line]*
+//       ids:4 [key:8 length:4 id]*
+// services are written in id order, so ids stay the same after restore;
+// file is replaced atomically, output is flushed before, so traces
+// emitted after the last checkpoint can be emitted twice on resume;
+// interned ids keep their keys, so restored lines match new ones
+public class Checkpoint implements LineSink {
+    private static final Logger logger = LoggerFactory.getLogger(Checkpoint.class);
+    static final byte[] MAGIC = "TRC2".getBytes();
+    private static final int LINE_BYTES = 8 + SpillFile.LINE_BYTES;
+    private static final int HEADER_BYTES = MAGIC.length + 8 + 8 + 1 + 4;
+
+    private final Path path;
+    private final Dictionary serviceDictionary;
+    private final RequestRepo requestRepo;
+    private final LogLineParser logLineParser;
+    private final ByteBuffer buf;
+    private FileChannel fileCh;
+    private long requestId;
+    private long lines;
+    private long logTime;
+
+    public Checkpoint(Path path, Dictionary serviceDictionary, RequestRepo requestRepo,
+            LogLineParser logLineParser, int bufferBytes) {
+        this.path = path;
+        this.serviceDictionary = serviceDictionary;
+        this.requestRepo = requestRepo;
+        this.logLineParser = logLineParser;
+        this.buf = ByteBuffer.allocateDirect(Math.max(HEADER_BYTES, bufferBytes))
+                .order(LITTLE_ENDIAN);
+    }
+
+    // log time of restored state
+    public long getLogTime() {
+        return logTime;
+    }
+
+    public void write(long inputOffset, long logTime) {
+        final Path tmp = Paths.get(path + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, WRITE, CREATE, TRUNCATE_EXISTING)) {
+            fileCh = ch;
+            buf.clear();
+            buf.put(MAGIC).putLong(inputOffset).putLong(logTime)
+                    .put((byte) (logLineParser.isSearchNewLine() ? 1 : 0))
+                    .putInt(serviceDictionary.size());
+            for (int id = 1; id <= serviceDictionary.size(); ++id) {
+                final byte[] name = serviceDictionary.getById(id).array();
+                ensureSpace(4);
+                buf.putInt(name.length);
+                put(name);
+            }
+            ensureSpace(8);
+            final long linesPosition = ch.position() + buf.position();
+            buf.putLong(0);
+            lines = 0;
+            requestRepo.writeLines(this);
+            final IdInterner ids = requestRepo.getIds();
+            ensureSpace(4);
+            buf.putInt(ids.size());
+            ids.getIds().forEach((long key, byte[] id) -> {
+                ensureSpace(8 + 4);
+                buf.putLong(key).putInt(id.length);
+                put(id);
+            });
+            writeBuffer();
+            buf.putLong(lines).flip();
+            ch.write(buf, linesPosition);
+            buf.clear();
+            // renamed file is not empty after crash
+            ch.force(true);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            fileCh = null;
+        }
+        try {
+            Files.move(tmp, path, ATOMIC_MOVE, REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        logger.info("Checkpoint {} lines at input offset {}", lines, inputOffset);
+    }
+
+    void beginRequest(long requestId) {
+        this.requestId = requestId;
+    }
+
+    public void line(long callerSnapId, long snapId, int serviceId, long started, long ended) {
+        ensureSpace(LINE_BYTES);
+        buf.putLong(requestId).putLong(callerSnapId).putLong(snapId).putInt(serviceId)
+                .putLong(started).putLong(ended);
+        ++lines;
+    }
+
+    private void put(byte[] bytes) {
+        for (int offset = 0; offset < bytes.length; ) {
+            ensureSpace(1);
+            final int length = Math.min(buf.remaining(), bytes.length - offset);
+            buf.put(bytes, offset, length);
+            offset += length;
+        }
+    }
+
+    private void ensureSpace(int bytes) {
+        if (buf.remaining() < bytes) {
+            writeBuffer();
+        }
+    }
+
+    private void writeBuffer() {
+        buf.flip();
+        try {
+            while (buf.hasRemaining()) {
+                fileCh.write(buf);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        buf.clear();
+    }
+
+    // returns input offset to continue from, 0 if there is no checkpoint
+    public long restore() {
+        if (!Files.exists(path)) {
+            logger.info("No checkpoint {}", path);
+            return 0;
+        }
+        try (FileChannel ch = FileChannel.open(path, READ)) {
+            fileCh = ch;
+            buf.clear().flip();
+            need(HEADER_BYTES);
+            final byte[] magic = new byte[MAGIC.length];
+            buf.get(magic);
+            if (!Arrays.equals(MAGIC, magic)) {
+                throw new IOException("File " + path + " is not a checkpoint");
+            }
+            final long inputOffset = buf.getLong();
+            logTime = buf.getLong();
+            logLineParser.setSearchNewLine(buf.get() != 0);
+            final int services = buf.getInt();
+            for (int id = 1; id <= services; ++id) {
+                need(4);
+                final ByteBuffer name = ByteBuffer.wrap(get(buf.getInt()));
+                if (serviceDictionary.add(name) != id) {
+                    throw new IOException("Service " + id + " is restored with other id");
+                }
+            }
+            need(8);
+            final long restoredLines = buf.getLong();
+            for (long i = 0; i < restoredLines; ++i) {
+                need(LINE_BYTES);
+                final long lineRequestId = buf.getLong();
+                final long callerSnapId = buf.getLong();
+                final long snapId = buf.getLong();
+                requestRepo.line(buf.getInt(), lineRequestId, buf.getLong(), buf.getLong(),
+                        callerSnapId, snapId);
+            }
+            need(4);
+            final int ids = buf.getInt();
+            for (int i = 0; i < ids; ++i) {
+                need(8 + 4);
+                final long key = buf.getLong();
+                requestRepo.getIds().restore(key, get(buf.getInt()));
+            }
+            logger.info("Restored {} lines from input offset {}", restoredLines, inputOffset);
+            return inputOffset;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            fileCh = null;
+        }
+    }
+
+    private byte[] get(int length) throws IOException {
+        final ByteBuffer bytes = ByteBuffer.allocate(length);
+        while (bytes.hasRemaining()) {
+            need(1);
+            final int limit = buf.limit();
+            buf.limit(buf.position() + Math.min(buf.remaining(), bytes.remaining()));
+            bytes.put(buf);
+            buf.limit(limit);
+        }
+        return bytes.array();
+    }
+
+    private void need(int bytes) throws IOException {
+        if (buf.remaining() >= bytes) {
+            return;
+        }
+        buf.compact();
+        while (buf.position() < bytes) {
+            if (fileCh.read(buf) < 0) {
+                throw new IOException("Checkpoint " + path + " is truncated");
+            }
+        }
+        buf.flip();
+    }
+}
@@ -2,24 +2,58 @@ package org.dan.tracer;
 
 import static java.util.Arrays.asList;
 import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 public class CommandLineOptions {
     private static final Logger logger = LoggerFactory.getLogger(CommandLineOptions.class);
+    private static final int GZIP_BUFFER_BYTES = 256 * 1024;
+    private static final long FOLLOW_POLL_MS = 100;
     private long expireRequestAfterMs = MINUTES.toMillis(3);
     private int readBufferBytes = 1024 * 1024;
     private int writeBufferBytes = 1024 * 1024;
     private int maxLineLength = 120;
     private int flushLineCheck = 10000;
+    private int threads = 1;
+    private int inputBuffers;
+    private int outputBuffers;
+    private boolean mmapInput;
+    private boolean compressOutput;
+    private boolean binaryOutput;
+    private LineFormat lineFormat = LineFormat.parse(LineFormat.DEFAULT);
+    private boolean follow;
+    private int maxLatencyMs;
+    private int earlyEmitMs = -1;
+    private boolean columnarSpans;
+    private int maxHeapSpans;
+    private String spillDir = System.getProperty("java.io.tmpdir");
+    private Path checkpointPath;
+    private long checkpointMs = SECONDS.toMillis(60);
+    private boolean resume;
+    private Path metricsPath;
+    private long metricsMs = SECONDS.toMillis(10);
+    private Metrics metrics;
+    private int mmapWindowBytes = 256 * 1024 * 1024;
+    private final List<String> inputPaths = new ArrayList<>();
     private ReadableByteChannel inputCh = Channels.newChannel(System.in);
     private WritableByteChannel outputCh = Channels.newChannel(System.out);
 
@@ -27,6 +61,126 @@ public class CommandLineOptions {
         return flushLineCheck;
     }
 
+    public int getThreads() {
+        return threads;
+    }
+
+    // 0 means input is read by parser thread
+    public int getInputBuffers() {
+        return inputBuffers;
+    }
+
+    // 0 means output is written by parser thread
+    public int getOutputBuffers() {
+        return outputBuffers;
+    }
+
+    public boolean isCompressOutput() {
+        return compressOutput;
+    }
+
+    public boolean isBinaryOutput() {
+        return binaryOutput;
+    }
+
+    // each shard writes services of own dictionary
+    public TraceWriter newTraceWriter(WritableByteChannel outputCh,
+            ByteBuffer outputBuf, Dictionary serviceDictionary, int dictionaryId) {
+        if (binaryOutput) {
+            return new BinaryTraceWriter(outputCh, outputBuf, serviceDictionary, dictionaryId);
+        }
+        return new JsonTraceWriter(outputCh, outputBuf, serviceDictionary);
+    }
+
+    public LogLineParser newLogLineParser(Dictionary serviceDictionary,
+            RequestRepo requestRepo) {
+        if (lineFormat.isDefault()) {
+            return new LogLineParser(serviceDictionary, requestRepo);
+        }
+        return new FormatLineParser(serviceDictionary, requestRepo, lineFormat);
+    }
+
+    // lines are routed to shards by 8 bytes at this offset
+    public int getRequestIdOffset() {
+        return lineFormat.getRequestIdOffset();
+    }
+
+    // 0 means requests are expired by line count only
+    public int getMaxLatencyMs() {
+        return maxLatencyMs;
+    }
+
+    // -1 means requests are emitted only on expiry
+    public int getEarlyEmitMs() {
+        return earlyEmitMs;
+    }
+
+    public boolean isFollow() {
+        return follow;
+    }
+
+    public boolean isMmapInput() {
+        return mmapInput;
+    }
+
+    public int getMmapWindowBytes() {
+        return mmapWindowBytes;
+    }
+
+    public boolean isColumnarSpans() {
+        return columnarSpans;
+    }
+
+    public SpanSlabs newSpanSlabs() {
+        return columnarSpans ? new SpanSlabs() : null;
+    }
+
+    // 0 means spans are never spilled to disk
+    public int getMaxHeapSpans() {
+        return maxHeapSpans;
+    }
+
+    public SpillFile newSpillFile() {
+        if (maxHeapSpans == 0) {
+            return null;
+        }
+        try {
+            return new SpillFile(Paths.get(spillDir), writeBufferBytes);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // null means state is not saved
+    public Path getCheckpointPath() {
+        return checkpointPath;
+    }
+
+    public long getCheckpointMs() {
+        return checkpointMs;
+    }
+
+    public boolean isResume() {
+        return resume;
+    }
+
+    // null means metrics are not dumped
+    public Path getMetricsPath() {
+        return metricsPath;
+    }
+
+    public long getMetricsMs() {
+        return metricsMs;
+    }
+
+    // shared by input, output and parser threads
+    public Metrics getMetrics() {
+        if (metrics == null) {
+            metrics = new Metrics(threads);
+        }
+        return metrics;
+    }
+
     public int getMaxLineLength() {
         return maxLineLength;
     }
@@ -55,7 +209,7 @@ public class CommandLineOptions {
         for (int i = 0; i < args .length; ++i) {
             switch (args[i]) {
                 case "-in":
-                    openInput(optionStringArg(args, ++i));
+                    inputPaths.add(optionStringArg(args, ++i));
                     break;
                 case "-out":
                     openOutput(optionStringArg(args, ++i));
@@ -75,6 +229,63 @@ public class CommandLineOptions {
                 case "-wbuf":
                     writeBufferBytes = optionIntArg(args, ++i);
                     break;
+                case "-in-buffers":
+                    inputBuffers = optionIntArg(args, ++i, 2);
+                    break;
+                case "-out-buffers":
+                    outputBuffers = optionIntArg(args, ++i, 2);
+                    break;
+                case "-out-compress":
+                    compressOutput = true;
+                    break;
+                case "-in-format":
+                    lineFormat = optionLineFormatArg(args, ++i);
+                    break;
+                case "-out-format":
+                    binaryOutput = optionFormatArg(args, ++i);
+                    break;
+                case "-threads":
+                    threads = optionIntArg(args, ++i, 1);
+                    break;
+                case "-max-latency":
+                    maxLatencyMs = optionIntArg(args, ++i, 1);
+                    break;
+                case "-early-emit":
+                    earlyEmitMs = optionIntArg(args, ++i, 0);
+                    break;
+                case "-follow":
+                    follow = true;
+                    break;
+                case "-mmap":
+                    mmapInput = true;
+                    break;
+                case "-mmap-window":
+                    mmapWindowBytes = optionIntArg(args, ++i);
+                    break;
+                case "-max-heap-spans":
+                    maxHeapSpans = optionIntArg(args, ++i);
+                    break;
+                case "-spill-dir":
+                    spillDir = optionStringArg(args, ++i);
+                    break;
+                case "-checkpoint":
+                    checkpointPath = Paths.get(optionStringArg(args, ++i));
+                    break;
+                case "-checkpoint-sec":
+                    checkpointMs = SECONDS.toMillis(optionIntArg(args, ++i, 1));
+                    break;
+                case "-resume":
+                    resume = true;
+                    break;
+                case "-metrics":
+                    metricsPath = Paths.get(optionStringArg(args, ++i));
+                    break;
+                case "-metrics-sec":
+                    metricsMs = SECONDS.toMillis(optionIntArg(args, ++i, 1));
+                    break;
+                case "-columnar":
+                    columnarSpans = true;
+                    break;
                 case "-expire-minute":
                     expireRequestAfterMs = MINUTES.toMillis(optionIntArg(args, ++i));
                     break;
@@ -83,16 +294,98 @@ public class CommandLineOptions {
                             String.join(" ", asList(args)));
             }
         }
+        if (maxLatencyMs > 0 && inputBuffers == 0 && !follow && !mmapInput) {
+            // parser blocked in read would miss the deadline
+            inputBuffers = 2;
+        }
+        if (follow) {
+            if (inputPaths.size() != 1 || mmapInput || threads > 1) {
+                error("Option -follow requires single -in and no -mmap or -threads");
+            }
+            openFollow(inputPaths.get(0));
+        } else if (!inputPaths.isEmpty()) {
+            openInput();
+        }
+        if (mmapInput && !(inputCh instanceof FileChannel)) {
+            error("Option -mmap requires single uncompressed -in");
+        }
+        if (checkpointPath != null && (threads > 1 || mmapInput || follow)) {
+            error("Option -checkpoint is not compatible with -threads, -mmap or -follow");
+        }
+        if (resume && (checkpointPath == null || !(inputCh instanceof FileChannel))) {
+            error("Option -resume requires -checkpoint and single uncompressed -in");
+        }
+        if ((threads > 1 || mmapInput) && lineFormat.getRequestIdOffset() < 0) {
+            error("Option -in-format with -threads or -mmap requires"
+                    + " fixed width fields before raw request id");
+        }
+        if (mmapInput && inputBuffers > 0) {
+            error("Option -in-buffers is not compatible with -mmap");
+        }
     }
 
-    private void openInput(String s) {
+    private void openFollow(String path) {
         try {
-            inputCh = new FileInputStream(s).getChannel();
-        } catch (FileNotFoundException e) {
-            error("Failed to open file {}", s, e);
+            inputCh = new FollowChannel(Paths.get(path), maxLatencyMs > 0
+                    ? Math.min(FOLLOW_POLL_MS, maxLatencyMs) : FOLLOW_POLL_MS);
+        } catch (IOException e) {
+            error("Failed to open file {}", path, e);
+        }
+    }
+
+    // several files or files of a directory are merged by end time
+    private void openInput() {
+        final List<File> files = new ArrayList<>();
+        for (String path : inputPaths) {
+            final File file = new File(path);
+            final File[] dirFiles = file.listFiles(f -> f.isFile() && !f.isHidden());
+            if (dirFiles == null) {
+                files.add(file);
+            } else {
+                Arrays.sort(dirFiles);
+                files.addAll(asList(dirFiles));
+            }
+        }
+        if (files.size() == 1) {
+            inputCh = openInput(files.get(0));
+            return;
+        }
+        if (lineFormat.getEndTimeOffset() < 0) {
+            error("Option -in-format with several -in requires"
+                    + " fixed width fields before iso end time");
+        }
+        final List<ReadableByteChannel> inputChs = new ArrayList<>();
+        for (File file : files) {
+            inputChs.add(openInput(file));
+        }
+        try {
+            inputCh = new MergedLogChannel(inputChs, readBufferBytes,
+                    lineFormat.getEndTimeOffset(), getMetrics().input());
+        } catch (IOException e) {
+            error("Failed to read input files {}", files, e);
+        }
+    }
+
+    private ReadableByteChannel openInput(File file) {
+        try {
+            final FileInputStream in = new FileInputStream(file);
+            if (isGzip(in.getChannel())) {
+                return Channels.newChannel(new GZIPInputStream(in, GZIP_BUFFER_BYTES));
+            }
+            return in.getChannel();
+        } catch (IOException e) {
+            error("Failed to open file {}", file, e);
+            return null;
         }
     }
 
+    // file position is not moved
+    static boolean isGzip(FileChannel ch) throws IOException {
+        final ByteBuffer magic = ByteBuffer.allocate(2);
+        return ch.read(magic, 0) == 2
+                && (magic.get(0) & 0xff) == 0x1f && (magic.get(1) & 0xff) == 0x8b;
+    }
+
     private void openOutput(String s) {
         try {
             outputCh = new FileOutputStream(s).getChannel();
@@ -108,14 +401,39 @@ public class CommandLineOptions {
         return args[i];
     }
 
+    private boolean optionFormatArg(String[] args, int i) {
+        switch (optionStringArg(args, i)) {
+            case "json":
+                return false;
+            case "binary":
+                return true;
+            default:
+                error("Option {} expected json or binary but got {}", args[i - 1], args[i]);
+                return false;
+        }
+    }
+
+    private LineFormat optionLineFormatArg(String[] args, int i) {
+        try {
+            return LineFormat.parse(optionStringArg(args, i));
+        } catch (IllegalArgumentException e) {
+            error("Option {} got bad format: {}", args[i - 1], e.getMessage());
+            return null;
+        }
+    }
+
     private int optionIntArg(String[] args, int i) {
+        return optionIntArg(args, i, 100);
+    }
+
+    private int optionIntArg(String[] args, int i, int min) {
         if (args.length == i) {
             error("Option {} expected integer argument", args[i - 1]);
         }
         try {
             int n = Integer.parseInt(args[i]);
-            if (n < 100) {
-                error("Option {} should be more 100", n);
+            if (n < min) {
+                error("Option {} should be at least {}", args[i - 1], min);
             }
             return n;
         } catch (NumberFormatException e) {
@@ -132,12 +450,46 @@ public class CommandLineOptions {
     private void printHelp() {
         logger.info("Usage: tracer [ -in log_file ] [ -out trace_file ] [ ... ]\n"
                 + "  Options: \n"
-                + "    -in             - path to input log file instead of stdin\n"
+                + "    -in             - path to input log file instead of stdin,\n"
+                + "                      gzip file is detected and decompressed;\n"
+                + "                      several -in or a directory are merged by end time\n"
                 + "    -out            - path to output trace file instead of stdout\n"
                 + "    -rbuf           - size of read buffer in bytes\n"
                 + "    -wbuf           - size of write buffer in bytes\n"
                 + "    -flush-check    - check expired requests after N log lines are consumed\n"
                 + "    -max-line       - max expected length of a log line\n"
+                + "    -in-buffers     - read input ahead in separate thread into N buffers\n"
+                + "    -out-buffers    - write output in separate thread through N buffers\n"
+                + "    -out-compress   - gzip output in separate thread\n"
+                + "    -in-format      - layout of log line, default is\n"
+                + "                      {start} {end} {request} {service} {caller}->{span}\n"
+                + "                      times are iso or ms, ids are raw, text or hex\n"
+                + "                      e.g. {start:ms} {end:ms} {request:hex} ...\n"
+                + "    -out-format     - json (default) or binary, see TraceDecoder\n"
+                + "    -threads        - number of parallel shards keyed by request id\n"
+                + "                      shards expire requests by shared log time, so\n"
+                + "                      requests near -expire-minute can end up split\n"
+                + "                      unlike in single thread\n"
+                + "    -max-latency    - check expired requests and flush output at least\n"
+                + "                      every N ms of wall clock\n"
+                + "    -early-emit     - emit request with root and all callers logged\n"
+                + "                      after N ms of log time without its lines\n"
+                + "    -follow         - keep reading growing -in file, reopen it after rotation\n"
+                + "                      and expire requests by wall clock while it is idle\n"
+                + "    -mmap           - map input file into memory instead of reading it\n"
+                + "    -mmap-window    - size of mapped input window in bytes\n"
+                + "    -checkpoint     - file to save state of requests and input offset\n"
+                + "    -checkpoint-sec - seconds between checkpoints, default 60\n"
+                + "    -resume         - restore state from -checkpoint file and\n"
+                + "                      continue reading -in from saved offset\n"
+                + "    -metrics        - file to dump counters of lines, requests,\n"
+                + "                      bytes and buffer stalls\n"
+                + "    -metrics-sec    - seconds between metrics dumps, default 10\n"
+                + "    -columnar       - keep spans in reusable primitive array slabs\n"
+                + "    -max-heap-spans - move requests with oldest lines to spill file\n"
+                + "                      when more spans are kept in heap,\n"
+                + "                      budget is split between -threads\n"
+                + "    -spill-dir      - directory of spill file, default is temp dir\n"
                 + "    -expire-minute  - max difference for request between \n"
                 + "                      the newest line and newer request line\n"
                 + "                      logging is configured via \n"
@@ -0,0 +1,37 @@
+package org.dan.tracer;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+// counts bytes written to output; writes come from one thread at a time
+public class CountingWriteChannel implements WritableByteChannel, Flushable {
+    private final WritableByteChannel outputCh;
+    private final Metrics.Counters counters;
+
+    public CountingWriteChannel(WritableByteChannel outputCh, Metrics.Counters counters) {
+        this.outputCh = outputCh;
+        this.counters = counters;
+    }
+
+    public int write(ByteBuffer src) throws IOException {
+        final int written = outputCh.write(src);
+        counters.add(Metrics.BYTES_OUT, written);
+        return written;
+    }
+
+    public void flush() throws IOException {
+        if (outputCh instanceof Flushable) {
+            ((Flushable) outputCh).flush();
+        }
+    }
+
+    public boolean isOpen() {
+        return outputCh.isOpen();
+    }
+
+    public void close() throws IOException {
+        outputCh.close();
+    }
+}
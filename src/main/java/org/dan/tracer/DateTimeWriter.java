@@ -0,0 +1,58 @@
+package org.dan.tracer;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.util.concurrent.TimeUnit.HOURS;
+
+import java.nio.ByteBuffer;
+
+// spans of a batch mostly share date and hour, so "2013-10-23 10:" is
+// rendered once per hour and put as 3 words, "13:04.945" as 2 puts;
+// output buffer is little endian
+public class DateTimeWriter {
+    private static final long MS_HOUR = HOURS.toMillis(1);
+
+    private final ByteBuffer prefix = ByteBuffer.allocate(LogLineParser.ZERO_TIME_BYTES.length + 1)
+            .order(LITTLE_ENDIAN);
+    private long hourStart;
+    private long prefixDate;
+    private int prefixDay;
+    private short prefixHour;
+
+    public DateTimeWriter() {
+        render(0);
+    }
+
+    // 2013-10-23 10:13:04.945
+    public void write(ByteBuffer outputBuf, long time) {
+        long inHour = time - hourStart;
+        if (inHour < 0 || inHour >= MS_HOUR) {
+            if (time < LogLineParser.MIN_TIME || time >= LogLineParser.MAX_TIME) {
+                LogLineParser.writeDateTime(outputBuf, time);
+                return;
+            }
+            render(Math.floorDiv(time, MS_HOUR) * MS_HOUR);
+            inHour = time - hourStart;
+        }
+        final int clock = (int) inHour;
+        final int ms = clock % 1000;
+        final int minute = clock / 60000;
+        final int second = clock / 1000 % 60;
+        final int millis = LogLineParser.FOUR_DIGIT[ms];
+        outputBuf.putLong(prefixDate).putInt(prefixDay).putShort(prefixHour)
+                .putLong(LogLineParser.TWO_DIGIT[minute]
+                        | (long) ':' << 16
+                        | (long) LogLineParser.TWO_DIGIT[second] << 24
+                        | (long) '.' << 40
+                        | (long) (millis & 0xffff00) << 40)
+                .put((byte) (millis >>> 24));
+    }
+
+    private void render(long hour) {
+        prefix.clear();
+        LogLineParser.writeDateTime(prefix, hour);
+        hourStart = hour;
+        prefixDate = prefix.getLong(0);
+        prefixDay = prefix.getInt(8);
+        prefixHour = prefix.getShort(12);
+    }
+}
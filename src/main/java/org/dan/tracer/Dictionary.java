@@ -1,38 +1,104 @@
 package org.dan.tracer;
 
-import com.koloboke.collect.map.hash.HashIntObjMap;
-import com.koloboke.collect.map.hash.HashIntObjMaps;
-import com.koloboke.collect.map.hash.HashObjIntMap;
-import com.koloboke.collect.map.hash.HashObjIntMaps;
-
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
+// open addressing over word bytes, so lookup of a slice of input buffer
+// allocates nothing and only new words are copied
 public class Dictionary {
-    private final HashObjIntMap<ByteBuffer> byName;
-    private final HashIntObjMap<ByteBuffer> byId;
+    private static final int INITIAL_SLOTS = 64;
+
+    private int[] slots;
+    private int[] hashes;
+    private ByteBuffer[] byId;
+    private int size;
 
-    private Dictionary(HashObjIntMap<ByteBuffer> byName,
-            HashIntObjMap<ByteBuffer> byId) {
-        this.byId = byId;
-        this.byName = byName;
+    private Dictionary(int slots) {
+        this.slots = new int[slots];
+        this.hashes = new int[slots / 2 + 1];
+        this.byId = new ByteBuffer[slots / 2 + 1];
     }
 
     public static Dictionary create() {
-        return new Dictionary(
-                HashObjIntMaps.newMutableMap(),
-                HashIntObjMaps.newMutableMap());
+        return new Dictionary(INITIAL_SLOTS);
     }
 
     public int add(ByteBuffer word) {
-         int id = byName.getOrDefault(word, 0);
-         if (id == 0) {
-             byId.put(id = byId.size() + 1, word);
-             byName.put(word, id);
-         }
-         return id;
+        return add(word, word.position(), word.remaining());
+    }
+
+    public int add(ByteBuffer in, int start, int length) {
+        final int hash = hash(in, start, length);
+        final int mask = slots.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            final int id = slots[i];
+            if (id == 0) {
+                return insert(i, hash, in, start, length);
+            }
+            if (hashes[id] == hash && same(byId[id], in, start, length)) {
+                return id;
+            }
+        }
     }
 
     public ByteBuffer getById(int serviceId) {
-        return byId.get(serviceId);
+        if (serviceId <= 0 || serviceId > size) {
+            return null;
+        }
+        return byId[serviceId];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int insert(int slot, int hash, ByteBuffer in, int start, int length) {
+        final byte[] word = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            word[i] = in.get(start + i);
+        }
+        final int id = ++size;
+        slots[slot] = id;
+        hashes[id] = hash;
+        byId[id] = ByteBuffer.wrap(word);
+        if (size * 2 >= slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        hashes = Arrays.copyOf(hashes, slots.length / 2 + 1);
+        byId = Arrays.copyOf(byId, slots.length / 2 + 1);
+        final int mask = slots.length - 1;
+        for (int id = 1; id <= size; ++id) {
+            int i = hashes[id] & mask;
+            while (slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = id;
+        }
+    }
+
+    private static boolean same(ByteBuffer word, ByteBuffer in, int start, int length) {
+        final byte[] bytes = word.array();
+        if (bytes.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            if (bytes[i] != in.get(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int hash(ByteBuffer in, int start, int length) {
+        int h = length;
+        for (int i = 0; i < length; ++i) {
+            h = h * 31 + in.get(start + i);
+        }
+        return h ^ (h >>> 16);
     }
 }
@@ -0,0 +1,104 @@
+package org.dan.tracer;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Map;
+
+// measures time between last line of request and its json in output;
+// delegate is optional
+public class EmitLatencyChannel implements WritableByteChannel {
+    // {"id":"
+    private static final int ID_OFFSET = 7;
+
+    private final WritableByteChannel delegate;
+    private final Map<Long, Long> lastLineNs;
+    private final ByteBuffer id = ByteBuffer.allocate(8).order(LITTLE_ENDIAN);
+    private int recordOffset;
+    private long bytes;
+    private long records;
+    private long measured;
+    private long sumLatencyNs;
+    private long maxLatencyNs;
+    private boolean open = true;
+
+    public EmitLatencyChannel(WritableByteChannel delegate, Map<Long, Long> lastLineNs) {
+        this.delegate = delegate;
+        this.lastLineNs = lastLineNs;
+    }
+
+    public synchronized int write(ByteBuffer src) throws IOException {
+        final long now = System.nanoTime();
+        final int limit = src.limit();
+        for (int i = src.position(); i < limit; ++i) {
+            final byte b = src.get(i);
+            if (b == '\n') {
+                ++records;
+                recordOffset = 0;
+                continue;
+            }
+            if (recordOffset >= ID_OFFSET && recordOffset < ID_OFFSET + 8) {
+                id.put(b);
+                if (!id.hasRemaining()) {
+                    id.flip();
+                    measure(id.getLong(), now);
+                    id.clear();
+                }
+            }
+            ++recordOffset;
+        }
+        final int written = src.remaining();
+        bytes += written;
+        if (delegate == null) {
+            src.position(limit);
+        } else {
+            while (src.hasRemaining()) {
+                delegate.write(src);
+            }
+        }
+        return written;
+    }
+
+    private void measure(long requestId, long now) {
+        final Long lastLine = lastLineNs.remove(requestId);
+        if (lastLine != null) {
+            final long latency = now - lastLine;
+            ++measured;
+            sumLatencyNs += latency;
+            maxLatencyNs = Math.max(maxLatencyNs, latency);
+        }
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized long getRecords() {
+        return records;
+    }
+
+    public synchronized long getMeasured() {
+        return measured;
+    }
+
+    public synchronized long getAvgLatencyNs() {
+        return measured == 0 ? 0 : sumLatencyNs / measured;
+    }
+
+    public synchronized long getMaxLatencyNs() {
+        return maxLatencyNs;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    public void close() throws IOException {
+        open = false;
+        if (delegate != null) {
+            delegate.close();
+        }
+    }
+}
@@ -2,31 +2,117 @@ package org.dan.tracer;
 
 import static java.nio.ByteOrder.LITTLE_ENDIAN;
 
+import java.io.Flushable;
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
 
 public class EntryPoint {
-    public static void main(final String[] args) throws IOException {
+    public static void main(final String[] args)
+            throws IOException, InterruptedException {
         final CommandLineOptions options = new CommandLineOptions();
         options.parse(args);
-        final ReadableByteChannel inputCh = options.getInputCh();
-        final WritableByteChannel outputCh = options.getOutputCh();
+        run(options, options.getInputCh(), options.getOutputCh());
+    }
+
+    public static void run(CommandLineOptions options,
+            ReadableByteChannel inputCh, WritableByteChannel outputCh)
+            throws IOException, InterruptedException {
+        final Path metricsPath = options.getMetricsPath();
+        if (metricsPath == null) {
+            reconstruct(options, inputCh, outputCh);
+            return;
+        }
+        final Metrics metrics = options.getMetrics();
+        final Thread dumper = metrics.startDump(metricsPath, options.getMetricsMs());
+        try {
+            reconstruct(options, inputCh, new CountingWriteChannel(outputCh, metrics.output()));
+        } finally {
+            dumper.interrupt();
+            metrics.dump(metricsPath);
+        }
+    }
+
+    private static void reconstruct(CommandLineOptions options,
+            ReadableByteChannel inputCh, WritableByteChannel outputCh)
+            throws IOException, InterruptedException {
+        if (options.isCompressOutput()) {
+            // compression runs in writer thread; flushed traces
+            // of -max-latency or -follow are not held in deflater
+            final boolean syncFlush = options.getMaxLatencyMs() > 0 || options.isFollow();
+            final GZIPOutputStream gzip = new GZIPOutputStream(
+                    Channels.newOutputStream(outputCh), options.getWriteBufferBytes(), syncFlush);
+            outputCh = new AsyncWriteChannel(Channels.newChannel(gzip), syncFlush ? gzip : null,
+                    options.getWriteBufferBytes(), Math.max(2, options.getOutputBuffers()));
+            ((AsyncWriteChannel) outputCh).setCounters(options.getMetrics().output());
+        } else if (options.getOutputBuffers() > 0) {
+            outputCh = new AsyncWriteChannel(outputCh,
+                    options.getWriteBufferBytes(), options.getOutputBuffers());
+            ((AsyncWriteChannel) outputCh).setCounters(options.getMetrics().output());
+        }
+        if (options.isBinaryOutput()) {
+            BinaryTraceWriter.writeHeader(outputCh);
+        }
+        if (options.isMmapInput()) {
+            new MappedReconstructor(options, (FileChannel) inputCh, outputCh)
+                    .reconstructTraces();
+            return;
+        }
+        if (options.getThreads() > 1) {
+            new ShardedReconstructor(options, readAhead(options, inputCh), outputCh)
+                    .reconstructTraces();
+            return;
+        }
         final Dictionary serviceDictionary = Dictionary.create();
         final ByteBuffer outputBuf = ByteBuffer
                 .allocateDirect(options.getWriteBufferBytes())
                 .order(LITTLE_ENDIAN);
+        final LatencyWriteChannel latencyCh = new LatencyWriteChannel(outputCh);
         final RequestRepo requestRepo = new RequestRepo(
-                serviceDictionary, outputCh, outputBuf);
-        final LogLineParser logLineParser = new LogLineParser(
+                options.newTraceWriter(latencyCh, outputBuf, serviceDictionary, 0),
+                options.newSpanSlabs());
+        latencyCh.setRequestRepo(requestRepo);
+        requestRepo.setEarlyEmitMs(options.getEarlyEmitMs());
+        requestRepo.setSpillFile(options.newSpillFile(), options.getMaxHeapSpans());
+        requestRepo.setCounters(options.getMetrics().parser(0));
+        final LogLineParser logLineParser = options.newLogLineParser(
                 serviceDictionary, requestRepo);
+        logLineParser.setCounters(options.getMetrics().parser(0));
         final ByteBuffer inputBuf = ByteBuffer
                 .allocateDirect(options.getReadBufferBytes())
                 .order(LITTLE_ENDIAN);
+        Checkpoint checkpoint = null;
+        long inputOffset = 0;
+        if (options.getCheckpointPath() != null) {
+            checkpoint = new Checkpoint(options.getCheckpointPath(), serviceDictionary,
+                    requestRepo, logLineParser, options.getWriteBufferBytes());
+            if (options.isResume()) {
+                requestRepo.setWallTime(System.currentTimeMillis());
+                inputOffset = checkpoint.restore();
+                ((FileChannel) inputCh).position(inputOffset);
+            }
+        }
+
+        reconstructTraces(options, readAhead(options, inputCh), latencyCh, outputBuf,
+                requestRepo, logLineParser, inputBuf, checkpoint, inputOffset);
+    }
 
-        reconstructTraces(options, inputCh, outputCh, outputBuf,
-                requestRepo, logLineParser, inputBuf);
+    private static ReadableByteChannel readAhead(CommandLineOptions options,
+            ReadableByteChannel inputCh) {
+        if (options.getInputBuffers() > 0) {
+            final ReadAheadChannel readAheadCh = new ReadAheadChannel(inputCh,
+                    options.getReadBufferBytes(), options.getInputBuffers(),
+                    options.getMaxLatencyMs());
+            readAheadCh.setCounters(options.getMetrics().input());
+            return readAheadCh;
+        }
+        return inputCh;
     }
 
     public static void reconstructTraces(CommandLineOptions options,
@@ -34,34 +120,136 @@ public class EntryPoint {
             ByteBuffer outputBuf, RequestRepo requestRepo,
             LogLineParser logLineParser,
             ByteBuffer inputBuf) throws IOException {
+        reconstructTraces(options, inputCh, outputCh, outputBuf, requestRepo,
+                logLineParser, inputBuf, null, 0);
+    }
+
+    public static void reconstructTraces(CommandLineOptions options,
+            ReadableByteChannel inputCh, WritableByteChannel outputCh,
+            ByteBuffer outputBuf, RequestRepo requestRepo,
+            LogLineParser logLineParser,
+            ByteBuffer inputBuf, Checkpoint checkpoint, long inputOffset)
+            throws IOException {
         int linesSinceAutoEnd = 0;
-        long oldestTime = 0;
+        long oldestTime = checkpoint == null ? 0 : checkpoint.getLogTime();
+        long lastReadAt = System.currentTimeMillis();
+        long deadline = lastReadAt + options.getMaxLatencyMs();
+        long nextCheckpoint = lastReadAt + options.getCheckpointMs();
+        final Metrics.Counters input = options.getMetrics().input();
         try {
             while (true) {
                 final int read = inputCh.read(inputBuf);
+                final long now = System.currentTimeMillis();
+                requestRepo.setWallTime(now);
                 inputBuf.flip();
                 if (read < 0) {
-                    while (inputBuf.remaining() > 74) {
-                        oldestTime = Math.max(oldestTime, logLineParser.parse(inputBuf));
+                    inputOffset += inputBuf.remaining();
+                    try {
+                        while (inputBuf.remaining() >= logLineParser.getMinLineLength()) {
+                            oldestTime = Math.max(oldestTime, logLineParser.parse(inputBuf));
+                        }
+                    } catch (BufferUnderflowException e) {
+                        // malformed tail line
                     }
                     break;
                 }
+                final int unparsed = inputBuf.remaining();
                 while (inputBuf.remaining() > options.getMaxLineLength()) {
-                    oldestTime = Math.max(oldestTime, logLineParser.parse(inputBuf));
+                    final int lineStart = inputBuf.position();
+                    try {
+                        oldestTime = Math.max(oldestTime, logLineParser.parse(inputBuf));
+                    } catch (BufferUnderflowException e) {
+                        skipIncompleteLine(logLineParser, inputBuf, lineStart);
+                        break;
+                    }
                     ++linesSinceAutoEnd;
                 }
+                inputOffset += unparsed - inputBuf.remaining();
                 inputBuf.compact();
                 if (linesSinceAutoEnd > options.getFlushLineCheck()) {
                     requestRepo.autoEnd(oldestTime, options.getExpireRequestAfterMs());
                     linesSinceAutoEnd = 0;
+                    if (checkpoint != null && now >= nextCheckpoint) {
+                        // traces emitted before checkpoint are not lost on crash
+                        flush(outputCh, outputBuf);
+                        checkpoint.write(inputOffset, oldestTime);
+                        nextCheckpoint = now + options.getCheckpointMs();
+                    }
+                }
+                if (read > 0) {
+                    lastReadAt = now;
+                    input.add(Metrics.BYTES_IN, read);
+                }
+                if (options.getMaxLatencyMs() > 0
+                        ? now >= deadline
+                        : read == 0 && options.isFollow()) {
+                    if (read == 0) {
+                        final int buffered = inputBuf.position();
+                        oldestTime = Math.max(oldestTime,
+                                parseWholeLines(logLineParser, inputBuf));
+                        inputOffset += buffered - inputBuf.position();
+                    }
+                    // while log is idle its time is moved by wall clock
+                    requestRepo.autoEnd(oldestTime + now - lastReadAt,
+                            options.getExpireRequestAfterMs());
+                    flush(outputCh, outputBuf);
+                    deadline = now + options.getMaxLatencyMs();
                 }
             }
             requestRepo.autoEnd(oldestTime, 0);
+            if (checkpoint != null) {
+                flush(outputCh, outputBuf);
+                checkpoint.write(inputOffset, oldestTime);
+            }
             requestRepo.logStats();
         } finally {
+            requestRepo.close();
             outputBuf.flip();
             outputCh.write(outputBuf);
             outputCh.close();
         }
     }
+
+    // line longer than -max-line is read again with more bytes,
+    // line longer than the whole buffer is skipped
+    private static void skipIncompleteLine(LogLineParser logLineParser,
+            ByteBuffer inputBuf, int lineStart) {
+        if (lineStart > 0 || inputBuf.limit() < inputBuf.capacity()) {
+            inputBuf.position(lineStart);
+            return;
+        }
+        inputBuf.position(inputBuf.limit());
+        logLineParser.malformed();
+    }
+
+    // short tail lines of followed file are not left behind
+    private static long parseWholeLines(LogLineParser logLineParser, ByteBuffer inputBuf) {
+        inputBuf.flip();
+        final int limit = inputBuf.limit();
+        inputBuf.limit(MappedReconstructor.lastLineEnd(inputBuf, limit));
+        long oldestTime = 0;
+        while (inputBuf.hasRemaining()) {
+            try {
+                oldestTime = Math.max(oldestTime, logLineParser.parse(inputBuf));
+            } catch (BufferUnderflowException e) {
+                break; // malformed tail line
+            }
+        }
+        logLineParser.setSearchNewLine(false);
+        inputBuf.limit(limit);
+        inputBuf.compact();
+        return oldestTime;
+    }
+
+    private static void flush(WritableByteChannel outputCh, ByteBuffer outputBuf)
+            throws IOException {
+        outputBuf.flip();
+        while (outputBuf.hasRemaining()) {
+            outputCh.write(outputBuf);
+        }
+        outputBuf.clear();
+        if (outputCh instanceof Flushable) {
+            ((Flushable) outputCh).flush();
+        }
+    }
 }
@@ -0,0 +1,101 @@
+package org.dan.tracer;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+// timing wheel of requests bucketed by their oldest line;
+// a request whose line came after it was queued is queued again on drain
+public class ExpiryQueue {
+    private static final int BUCKET_MS = 1000;
+    private static final int SLOTS = 1024;
+
+    private final long bucketMs;
+    private final Request[][] slots;
+    private final int[] slotSizes;
+    private Request[] drained = new Request[16];
+    private long cursor;
+    private int size;
+
+    public ExpiryQueue() {
+        this(BUCKET_MS, SLOTS);
+    }
+
+    ExpiryQueue(long bucketMs, int slots) {
+        if (Integer.bitCount(slots) != 1) {
+            throw new IllegalArgumentException("Slots " + slots + " is not power of 2");
+        }
+        this.bucketMs = bucketMs;
+        this.slots = new Request[slots][];
+        this.slotSizes = new int[slots];
+    }
+
+    public void add(Request request) {
+        long bucket = Math.floorDiv(request.getOldestLine(), bucketMs);
+        if (size == 0) {
+            cursor = bucket;
+        } else if (bucket < cursor) {
+            bucket = cursor;
+        } else if (bucket >= cursor + slots.length) {
+            bucket = cursor + slots.length - 1;
+        }
+        final int slot = (int) bucket & (slots.length - 1);
+        Request[] requests = slots[slot];
+        if (requests == null) {
+            requests = slots[slot] = new Request[4];
+        } else if (requests.length == slotSizes[slot]) {
+            requests = slots[slot] = Arrays.copyOf(requests, requests.length * 2);
+        }
+        requests[slotSizes[slot]++] = request;
+        ++size;
+    }
+
+    // takes out requests of buckets up to limitTime
+    // they are available via drained(i) till next call
+    public int drain(long limitTime) {
+        final long limitBucket = Math.floorDiv(limitTime, bucketMs);
+        if (size == 0 || limitBucket < cursor) {
+            return 0;
+        }
+        final long steps = Math.min(limitBucket - cursor + 1, slots.length);
+        int n = 0;
+        for (long bucket = cursor; bucket < cursor + steps; ++bucket) {
+            final int slot = (int) bucket & (slots.length - 1);
+            final int slotSize = slotSizes[slot];
+            if (slotSize == 0) {
+                continue;
+            }
+            if (drained.length < n + slotSize) {
+                drained = Arrays.copyOf(drained, Math.max(drained.length * 2, n + slotSize));
+            }
+            System.arraycopy(slots[slot], 0, drained, n, slotSize);
+            Arrays.fill(slots[slot], 0, slotSize, null);
+            slotSizes[slot] = 0;
+            n += slotSize;
+        }
+        size -= n;
+        cursor = limitBucket + 1;
+        return n;
+    }
+
+    // requests from the oldest bucket on till visitor returns false
+    public void visit(Predicate<Request> visitor) {
+        for (long bucket = cursor; bucket < cursor + slots.length; ++bucket) {
+            final int slot = (int) bucket & (slots.length - 1);
+            for (int i = 0; i < slotSizes[slot]; ++i) {
+                if (!visitor.test(slots[slot][i])) {
+                    return;
+                }
+            }
+        }
+    }
+
+    public Request drained(int i) {
+        final Request request = drained[i];
+        drained[i] = null;
+        return request;
+    }
+
+    public int size() {
+        return size;
+    }
+}
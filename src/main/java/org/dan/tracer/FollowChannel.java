@@ -0,0 +1,83 @@
+package org.dan.tracer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+
+// reads growing log file and never ends; at end of file it waits pollMs
+// and returns 0, so caller can expire requests by wall clock;
+// rotated file is reopened by path, truncated file is reread from start
+public class FollowChannel implements ReadableByteChannel {
+    private static final Logger logger = LoggerFactory.getLogger(FollowChannel.class);
+
+    private final Path path;
+    private final long pollMs;
+    private FileChannel inputCh;
+    private Object fileKey;
+
+    public FollowChannel(Path path, long pollMs) throws IOException {
+        this.path = path;
+        this.pollMs = pollMs;
+        open();
+    }
+
+    private void open() throws IOException {
+        inputCh = FileChannel.open(path, StandardOpenOption.READ);
+        fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+    }
+
+    public int read(ByteBuffer dst) throws IOException {
+        final int read = inputCh.read(dst);
+        if (read >= 0) {
+            return read;
+        }
+        if (restarted()) {
+            return Math.max(0, inputCh.read(dst));
+        }
+        try {
+            Thread.sleep(pollMs);
+        } catch (InterruptedException e) {
+            return -1; // interrupt ends following like end of file
+        }
+        return 0;
+    }
+
+    private boolean restarted() throws IOException {
+        final BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return false; // new file is not created yet
+        }
+        if (attrs.fileKey() != null && !Objects.equals(attrs.fileKey(), fileKey)) {
+            logger.info("Reopen rotated file {}", path);
+            inputCh.close();
+            open();
+            return true;
+        }
+        if (attrs.size() < inputCh.position()) {
+            logger.info("Reread truncated file {}", path);
+            inputCh.position(0);
+            return true;
+        }
+        return false;
+    }
+
+    public boolean isOpen() {
+        return inputCh.isOpen();
+    }
+
+    public void close() throws IOException {
+        inputCh.close();
+    }
+}
@@ -0,0 +1,167 @@
+package org.dan.tracer;
+
+import static org.dan.tracer.LineFormat.CALLER;
+import static org.dan.tracer.LineFormat.END;
+import static org.dan.tracer.LineFormat.HEX;
+import static org.dan.tracer.LineFormat.ISO;
+import static org.dan.tracer.LineFormat.MS;
+import static org.dan.tracer.LineFormat.RAW;
+import static org.dan.tracer.LineFormat.REQUEST;
+import static org.dan.tracer.LineFormat.SERVICE;
+import static org.dan.tracer.LineFormat.SPAN;
+import static org.dan.tracer.LineFormat.START;
+import static org.dan.tracer.LineFormat.TEXT;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+// parser of LineFormat layout; line end is found first,
+// so a malformed line is skipped without searchNewLine
+public class FormatLineParser extends LogLineParser {
+    private static final int NULL_CALLER = (int) NULL_SPAN;
+
+    private final LineFormat.Field[] fields;
+    private final byte[] suffix;
+    private final int minLineLength;
+    private final long[] values = new long[SPAN + 1];
+    private final IdInterner ids;
+    private int serviceStart;
+    private int serviceLength;
+
+    public FormatLineParser(Dictionary serviceDictionary, RequestRepo requestRepo,
+            LineFormat format) {
+        super(serviceDictionary, requestRepo);
+        this.fields = format.getFields();
+        this.suffix = format.getSuffix();
+        this.minLineLength = format.getMinLineLength();
+        final int requestType = requestType(fields);
+        this.ids = requestType == TEXT || requestType == HEX
+                ? requestRepo.internRequestIds() : null;
+    }
+
+    @Override
+    public int getMinLineLength() {
+        return minLineLength;
+    }
+
+    @Override
+    public long parse(ByteBuffer in) {
+        if (isSearchNewLine()) {
+            skipLine(in);
+            return 0;
+        }
+        final int lineEnd = Swar.indexOf(in, in.position(), in.limit(), Swar.LINE_ENDS);
+        if (lineEnd < 0) {
+            // incomplete line is left in buffer
+            throw new BufferUnderflowException();
+        }
+        final boolean parsed = parseFields(in, lineEnd);
+        in.position(lineEnd + 1);
+        if (!parsed) {
+            counters.add(Metrics.MALFORMED_LINES, 1);
+            return 0;
+        }
+        requestRepo.line(serviceDictionary.add(in, serviceStart, serviceLength),
+                values[REQUEST], values[START], values[END], values[CALLER], values[SPAN]);
+        counters.add(Metrics.LINES, 1);
+        return values[END];
+    }
+
+    private boolean parseFields(ByteBuffer in, int lineEnd) {
+        int pos = in.position();
+        for (LineFormat.Field field : fields) {
+            if (!matches(in, pos, lineEnd, field.prefix)) {
+                return false;
+            }
+            pos += field.prefix.length;
+            final int end = field.width > 0
+                    ? pos + field.width
+                    : Swar.indexOf(in, pos, lineEnd + 1, field.delimiter);
+            if (end <= pos || end > lineEnd) {
+                return false;
+            }
+            if (!parseField(in, field, pos, end)) {
+                return false;
+            }
+            pos = end;
+        }
+        return matches(in, pos, lineEnd, suffix) && pos + suffix.length == lineEnd;
+    }
+
+    private boolean parseField(ByteBuffer in, LineFormat.Field field, int start, int end) {
+        if (field.name == SERVICE) {
+            serviceStart = start;
+            serviceLength = end - start;
+            return true;
+        }
+        if (field.name == CALLER && end - start == 4 && in.getInt(start) == NULL_CALLER) {
+            values[CALLER] = NULL_SPAN;
+            return true;
+        }
+        final int length = end - start;
+        switch (field.type) {
+            case ISO:
+                in.position(start);
+                values[field.name] = readTime(in);
+                return values[field.name] != INVALID_TIME;
+            case MS:
+                return length <= 18 && readNumber(in, start, end, field.name, 10);
+            case RAW:
+                if (length != 8) {
+                    return false;
+                }
+                values[field.name] = in.getLong(start);
+                return true;
+            case TEXT:
+                values[field.name] = field.name == REQUEST
+                        ? ids.intern(in, start, end)
+                        : IdInterner.keyOf(in, start, end);
+                return true;
+            case HEX:
+                if (length > 16 || !readNumber(in, start, end, field.name, 16)) {
+                    return false;
+                }
+                // request id is written as it is logged
+                if (field.name == REQUEST) {
+                    values[field.name] = ids.intern(in, start, end);
+                }
+                return true;
+            default:
+                throw new IllegalStateException("Type " + field.type);
+        }
+    }
+
+    private static int requestType(LineFormat.Field[] fields) {
+        for (LineFormat.Field field : fields) {
+            if (field.name == REQUEST) {
+                return field.type;
+            }
+        }
+        throw new IllegalStateException("No request field");
+    }
+
+    private static boolean matches(ByteBuffer in, int pos, int lineEnd, byte[] text) {
+        if (pos + text.length > lineEnd) {
+            return false;
+        }
+        for (int i = 0; i < text.length; ++i) {
+            if (in.get(pos + i) != text[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean readNumber(ByteBuffer in, int start, int end, int name, int radix) {
+        long result = 0;
+        for (int i = start; i < end; ++i) {
+            final int digit = Character.digit(in.get(i), radix);
+            if (digit < 0) {
+                return false;
+            }
+            result = result * radix + digit;
+        }
+        values[name] = result;
+        return true;
+    }
+}
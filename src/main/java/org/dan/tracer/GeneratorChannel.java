@@ -0,0 +1,79 @@
+package org.dan.tracer;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Map;
+
+// generated log as input channel;
+// nano time of last line of every request is put to completed if it is set
+public class GeneratorChannel implements ReadableByteChannel {
+    private final LogGenerator generator;
+    private final long lines;
+    private final int linesPerSecond;
+    private final Map<Long, Long> completed;
+    private long generated;
+    private long startedNs;
+    private boolean open = true;
+
+    public GeneratorChannel(LogGenerator generator, long lines,
+            int linesPerSecond, Map<Long, Long> completed) {
+        this.generator = generator;
+        this.lines = lines;
+        this.linesPerSecond = linesPerSecond;
+        this.completed = completed;
+    }
+
+    public int read(ByteBuffer dst) {
+        if (generated == lines) {
+            return -1;
+        }
+        if (startedNs == 0) {
+            startedNs = System.nanoTime();
+        }
+        int read = 0;
+        while (dst.remaining() >= LogGenerator.MAX_LINE_BYTES && generated < lines) {
+            if (linesPerSecond > 0 && generated >= allowedLines()) {
+                if (read > 0) {
+                    break;
+                }
+                sleep();
+                continue;
+            }
+            final int position = dst.position();
+            if (generator.writeLine(dst) && completed != null) {
+                completed.put(generator.getLastRequestId(), System.nanoTime());
+            }
+            read += dst.position() - position;
+            ++generated;
+        }
+        return read;
+    }
+
+    private long allowedLines() {
+        return (System.nanoTime() - startedNs) * linesPerSecond / SECONDS.toNanos(1);
+    }
+
+    private static void sleep() {
+        try {
+            MILLISECONDS.sleep(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    public long getGenerated() {
+        return generated;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    public void close() {
+        open = false;
+    }
+}
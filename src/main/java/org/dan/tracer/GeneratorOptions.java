@@ -0,0 +1,175 @@
+package org.dan.tracer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+public class GeneratorOptions {
+    private static final Logger logger = LoggerFactory.getLogger(GeneratorOptions.class);
+    private long seed = 1;
+    private long lines = 1000000;
+    private int linesPerSecond;
+    private int liveRequests = 1000;
+    private int spansPerRequest = 10;
+    private int services = 50;
+    private int maxRequestMs = 1000;
+    private int skewMs;
+    private double malformedRatio;
+    private double orphanRatio;
+    private WritableByteChannel outputCh = Channels.newChannel(System.out);
+    private final List<String> rest = new ArrayList<>();
+
+    public LogGenerator newGenerator() {
+        final LogGenerator generator = new LogGenerator(seed, liveRequests,
+                spansPerRequest, services, maxRequestMs, LogGenerator.DEFAULT_START);
+        generator.setSkewMs(skewMs);
+        generator.setMalformedRatio(malformedRatio);
+        generator.setOrphanRatio(orphanRatio);
+        return generator;
+    }
+
+    public long getLines() {
+        return lines;
+    }
+
+    public int getLinesPerSecond() {
+        return linesPerSecond;
+    }
+
+    public int getLiveRequests() {
+        return liveRequests;
+    }
+
+    public int getSpansPerRequest() {
+        return spansPerRequest;
+    }
+
+    public WritableByteChannel getOutputCh() {
+        return outputCh;
+    }
+
+    // options which are not generator ones
+    public String[] getRest() {
+        return rest.toArray(new String[rest.size()]);
+    }
+
+    public void parse(String[] args) {
+        for (int i = 0; i < args.length; ++i) {
+            switch (args[i]) {
+                case "-seed":
+                    seed = optionIntArg(args, ++i, Integer.MIN_VALUE);
+                    break;
+                case "-lines":
+                    lines = optionIntArg(args, ++i, 1);
+                    break;
+                case "-rate":
+                    linesPerSecond = optionIntArg(args, ++i, 0);
+                    break;
+                case "-live":
+                    liveRequests = optionIntArg(args, ++i, 1);
+                    break;
+                case "-spans":
+                    spansPerRequest = optionIntArg(args, ++i, 1);
+                    break;
+                case "-services":
+                    services = optionIntArg(args, ++i, 1);
+                    break;
+                case "-duration-ms":
+                    maxRequestMs = optionIntArg(args, ++i, 1);
+                    break;
+                case "-skew-ms":
+                    skewMs = optionIntArg(args, ++i, 0);
+                    break;
+                case "-malformed":
+                    malformedRatio = optionRatioArg(args, ++i);
+                    break;
+                case "-orphans":
+                    orphanRatio = optionRatioArg(args, ++i);
+                    break;
+                case "-gen-out":
+                    openOutput(optionStringArg(args, ++i));
+                    break;
+                case "-gen-help":
+                    printHelp();
+                    break;
+                default:
+                    rest.add(args[i]);
+            }
+        }
+    }
+
+    private void openOutput(String s) {
+        try {
+            outputCh = new FileOutputStream(s).getChannel();
+        } catch (FileNotFoundException e) {
+            error("Failed to open file {}", s, e);
+        }
+    }
+
+    private String optionStringArg(String[] args, int i) {
+        if (args.length == i) {
+            error("Option {} expected file argument", args[i - 1]);
+        }
+        return args[i];
+    }
+
+    private int optionIntArg(String[] args, int i, int min) {
+        if (args.length == i) {
+            error("Option {} expected integer argument", args[i - 1]);
+        }
+        try {
+            int n = Integer.parseInt(args[i]);
+            if (n < min) {
+                error("Option {} should be at least {}", args[i - 1], min);
+            }
+            return n;
+        } catch (NumberFormatException e) {
+            error("Option {} expected integer argument but got {}", args[i - 1], args[i]);
+            return -1;
+        }
+    }
+
+    private double optionRatioArg(String[] args, int i) {
+        if (args.length == i) {
+            error("Option {} expected ratio argument", args[i - 1]);
+        }
+        try {
+            double n = Double.parseDouble(args[i]);
+            if (n < 0 || n > 1) {
+                error("Option {} should be between 0 and 1", args[i - 1]);
+            }
+            return n;
+        } catch (NumberFormatException e) {
+            error("Option {} expected ratio argument but got {}", args[i - 1], args[i]);
+            return -1;
+        }
+    }
+
+    void error(String pattern, Object... args) {
+        logger.error(pattern, args);
+        System.exit(1);
+    }
+
+    private void printHelp() {
+        logger.info("Usage: generator [ -lines N ] [ -rate N ] [ ... ]\n"
+                + "  Options: \n"
+                + "    -seed           - seed of random generator\n"
+                + "    -lines          - number of lines to generate\n"
+                + "    -rate           - max lines per second, 0 is unlimited\n"
+                + "    -live           - number of requests logged at the same time\n"
+                + "    -spans          - average number of spans per request\n"
+                + "    -services       - number of distinct service names\n"
+                + "    -duration-ms    - max duration of request\n"
+                + "    -skew-ms        - max time a line is logged out of order\n"
+                + "    -malformed      - share of malformed lines\n"
+                + "    -orphans        - share of requests without root span\n"
+                + "    -gen-out        - path to output log file instead of stdout\n");
+        System.exit(1);
+    }
+}
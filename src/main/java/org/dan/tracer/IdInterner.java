@@ -0,0 +1,135 @@
+package org.dan.tracer;
+
+import com.koloboke.collect.map.hash.HashLongObjMap;
+import com.koloboke.collect.map.hash.HashLongObjMaps;
+
+import java.nio.ByteBuffer;
+
+// request ids of text layout: ids up to 8 bytes are packed little endian
+// like raw ids if the result is not negative; others get a hash key with
+// high bit set and the side table keeps their bytes for output:
+// a key taken by other bytes is a collision and the next key is probed.
+// only interned request ids are kept, so a table key is never a parsed raw id;
+// span ids are not written as text, they get the same keys without the table.
+// released entry inside a probe chain stays as tombstone
+public class IdInterner {
+    private static final byte[] TOMBSTONE = new byte[0];
+
+    private final HashLongObjMap<byte[]> ids = HashLongObjMaps.newMutableMap();
+    private long collisions;
+
+    public long intern(ByteBuffer in, int start, int end) {
+        if (end - start <= 8) {
+            final long packed = pack(in, start, end);
+            if (packed >= 0) {
+                return packed;
+            }
+        }
+        long free = 0;
+        for (long key = hash(in, start, end); ; key = next(key)) {
+            final byte[] bytes = ids.get(key);
+            if (bytes == null) {
+                if (free == 0) {
+                    free = key;
+                }
+                final byte[] id = new byte[end - start];
+                for (int i = 0; i < id.length; ++i) {
+                    id[i] = in.get(start + i);
+                }
+                ids.put(free, id);
+                return free;
+            }
+            if (bytes == TOMBSTONE) {
+                if (free == 0) {
+                    free = key;
+                }
+            } else if (same(bytes, in, start, end)) {
+                return key;
+            } else {
+                ++collisions;
+            }
+        }
+    }
+
+    // key of id which is not kept
+    public static long keyOf(ByteBuffer in, int start, int end) {
+        if (end - start <= 8) {
+            final long packed = pack(in, start, end);
+            if (packed >= 0) {
+                return packed;
+            }
+        }
+        return hash(in, start, end);
+    }
+
+    private static long next(long key) {
+        return (key + 1) | Long.MIN_VALUE;
+    }
+
+    private static long pack(ByteBuffer in, int start, int end) {
+        long result = 0;
+        for (int i = end - 1; i >= start; --i) {
+            result = (result << 8) | (in.get(i) & 0xff);
+        }
+        return result;
+    }
+
+    private static long hash(ByteBuffer in, int start, int end) {
+        long h = end - start;
+        int i = start;
+        for (; i + 8 <= end; i += 8) {
+            h = Long.rotateLeft((h ^ in.getLong(i)) * 0x9E3779B97F4A7C15L, 31);
+        }
+        h = (h ^ pack(in, i, end)) * 0x9E3779B97F4A7C15L;
+        return (h ^ (h >>> 29)) | Long.MIN_VALUE;
+    }
+
+    private static boolean same(byte[] bytes, ByteBuffer in, int start, int end) {
+        if (bytes.length != end - start) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; ++i) {
+            if (bytes[i] != in.get(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // null for packed ids
+    public byte[] bytesOf(long key) {
+        return key < 0 ? ids.get(key) : null;
+    }
+
+    public void release(long key) {
+        if (key >= 0 || ids.get(key) == null) {
+            return;
+        }
+        if (ids.containsKey(next(key))) {
+            ids.put(key, TOMBSTONE);
+            return;
+        }
+        // tombstones before the chain end are not needed
+        ids.remove(key);
+        for (long prev = (key - 1) | Long.MIN_VALUE; ids.get(prev) == TOMBSTONE;
+                prev = (prev - 1) | Long.MIN_VALUE) {
+            ids.remove(prev);
+        }
+    }
+
+    void restore(long key, byte[] bytes) {
+        ids.put(key, bytes.length == 0 ? TOMBSTONE : bytes);
+    }
+
+    HashLongObjMap<byte[]> getIds() {
+        return ids;
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    public long getCollisions() {
+        return collisions;
+    }
+}
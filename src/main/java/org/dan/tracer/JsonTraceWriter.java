@@ -0,0 +1,120 @@
+package org.dan.tracer;
+
+import static org.dan.tracer.LogLineParser.ZERO_TIME_BYTES;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+// every field checks free space of output buffer before it is put
+public class JsonTraceWriter extends TraceWriter {
+    private static final byte[] ID_BYTES = "{\"id\":\"".getBytes();
+    private static final byte[] ROOT_BYTES = "\",\"root\":".getBytes();
+    private static final byte[] TERMINATOR_BYTES = "}\n".getBytes();
+    private static final byte[] START_BYTES = "{\"start\":\"".getBytes();
+    private static final byte[] END_BYTES = "\",\"end\":\"".getBytes();
+    private static final byte[] SERVICE_BYTES = "\",\"service\":\"".getBytes();
+    private static final byte[] CALLS_BYTES = "\",\"calls\":[".getBytes();
+    // LogLineParser.writeDateTime puts milliseconds with 4 bytes
+    static final int TIME_BYTES = ZERO_TIME_BYTES.length + 1;
+
+    private final WritableByteChannel outputCh;
+    private final ByteBuffer outputBuf;
+    private final Dictionary serviceDictionary;
+    private final DateTimeWriter dateTimeWriter = new DateTimeWriter();
+
+    public JsonTraceWriter(WritableByteChannel outputCh, ByteBuffer outputBuf,
+            Dictionary serviceDictionary) {
+        this.outputCh = outputCh;
+        this.outputBuf = outputBuf;
+        this.serviceDictionary = serviceDictionary;
+    }
+
+    public static void ensureSpace(final int minFreeSpace,
+            final WritableByteChannel outputCh,
+            final ByteBuffer outputBuf) {
+        if (outputBuf.remaining() < minFreeSpace) {
+            outputBuf.flip();
+            try {
+                outputCh.write(outputBuf);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            outputBuf.compact();
+        }
+    }
+
+    private void ensureSpace(int minFreeSpace) {
+        ensureSpace(minFreeSpace, outputCh, outputBuf);
+    }
+
+    @Override
+    public void beginRequest(long requestId) {
+        ensureSpace(ID_BYTES.length + 8 + ROOT_BYTES.length);
+        outputBuf.put(ID_BYTES);
+        final byte[] id = ids == null ? null : ids.bytesOf(requestId);
+        if (id == null) {
+            // id shorter than 8 bytes is packed with zero tail
+            outputBuf.putLong(requestId)
+                    .position(outputBuf.position() - Long.numberOfLeadingZeros(requestId) / 8);
+        } else {
+            put(id);
+            ensureSpace(ROOT_BYTES.length);
+        }
+        outputBuf.put(ROOT_BYTES);
+    }
+
+    @Override
+    public void endRequest() {
+        ensureSpace(TERMINATOR_BYTES.length);
+        outputBuf.put(TERMINATOR_BYTES);
+    }
+
+    @Override
+    protected void beginSpan(long spanId, long started, long ended,
+            int serviceId, boolean hasChildren, boolean first) {
+        ensureSpace(1 + START_BYTES.length + TIME_BYTES);
+        if (!first) {
+            outputBuf.put((byte) ',');
+        }
+        outputBuf.put(START_BYTES);
+        dateTimeWriter.write(outputBuf, started);
+        ensureSpace(END_BYTES.length + TIME_BYTES);
+        outputBuf.put(END_BYTES);
+        dateTimeWriter.write(outputBuf, ended);
+        ensureSpace(SERVICE_BYTES.length);
+        outputBuf.put(SERVICE_BYTES);
+        put(serviceDictionary.getById(serviceId).array());
+        if (hasChildren) {
+            ensureSpace(CALLS_BYTES.length);
+            outputBuf.put(CALLS_BYTES);
+        } else {
+            ensureSpace(1);
+            outputBuf.put((byte) '"');
+        }
+    }
+
+    @Override
+    protected void endSpan(boolean hasChildren) {
+        ensureSpace(2);
+        if (hasChildren) {
+            outputBuf.put((byte) ']');
+        }
+        outputBuf.put((byte) '}');
+    }
+
+    // word can be longer than output buffer
+    private void put(byte[] word) {
+        if (outputBuf.remaining() >= word.length) {
+            outputBuf.put(word);
+            return;
+        }
+        int offset = 0;
+        while (offset < word.length) {
+            ensureSpace(1);
+            final int length = Math.min(outputBuf.remaining(), word.length - offset);
+            outputBuf.put(word, offset, length);
+            offset += length;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package org.dan.tracer;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+// tells repo when its output buffer is written out, so emit latency
+// of a request covers time its record waits in the buffer
+public class LatencyWriteChannel implements WritableByteChannel, Flushable {
+    private final WritableByteChannel outputCh;
+    private RequestRepo requestRepo;
+
+    public LatencyWriteChannel(WritableByteChannel outputCh) {
+        this.outputCh = outputCh;
+    }
+
+    // repo is created after its trace writer
+    public void setRequestRepo(RequestRepo requestRepo) {
+        this.requestRepo = requestRepo;
+    }
+
+    public int write(ByteBuffer src) throws IOException {
+        final int written = outputCh.write(src);
+        if (!src.hasRemaining() && requestRepo != null) {
+            requestRepo.written(System.currentTimeMillis());
+        }
+        return written;
+    }
+
+    public void flush() throws IOException {
+        if (outputCh instanceof Flushable) {
+            ((Flushable) outputCh).flush();
+        }
+    }
+
+    public boolean isOpen() {
+        return outputCh.isOpen();
+    }
+
+    public void close() throws IOException {
+        outputCh.close();
+    }
+}
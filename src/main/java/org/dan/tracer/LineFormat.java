@@ -0,0 +1,189 @@
+package org.dan.tracer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// layout of log line, text between fields is matched as is:
+//   {start} {end} {request} {service} {caller}->{span}
+// field is {name} or {name:type}, every name is required once;
+// times are iso 2013-10-23T10:13:04.978Z (default) or ms since epoch,
+// ids are raw 8 bytes (default), hex up to 16 digits or text of any length,
+// text or hex request id is interned by IdInterner to be written as logged;
+// caller null marks the root span
+public class LineFormat {
+    public static final String DEFAULT = "{start} {end} {request} {service} {caller}->{span}";
+
+    static final int START = 0;
+    static final int END = 1;
+    static final int REQUEST = 2;
+    static final int SERVICE = 3;
+    static final int CALLER = 4;
+    static final int SPAN = 5;
+    private static final String[] NAMES = {
+            "start", "end", "request", "service", "caller", "span"};
+
+    static final int ISO = 0;
+    static final int MS = 1;
+    static final int RAW = 2;
+    static final int TEXT = 3;
+    static final int HEX = 4;
+    private static final String[] TYPES = {"iso", "ms", "raw", "text", "hex"};
+    private static final int ISO_BYTES = 24;
+
+    static class Field {
+        final int name;
+        final int type;
+        final byte[] prefix;
+        // 0 if field ends at delimiter
+        final int width;
+        final long delimiter;
+
+        Field(int name, int type, byte[] prefix, int width, long delimiter) {
+            this.name = name;
+            this.type = type;
+            this.prefix = prefix;
+            this.width = width;
+            this.delimiter = delimiter;
+        }
+    }
+
+    private final Field[] fields;
+    private final byte[] suffix;
+    private final int requestIdOffset;
+    private final int endTimeOffset;
+    private final int minLineLength;
+
+    private LineFormat(Field[] fields, byte[] suffix) {
+        this.fields = fields;
+        this.suffix = suffix;
+        int offset = 0;
+        int requestIdOffset = -1;
+        int endTimeOffset = -1;
+        int minLineLength = suffix.length + 1;
+        for (Field field : fields) {
+            offset += field.prefix.length;
+            if (field.name == REQUEST && field.type == RAW && offset >= 0) {
+                requestIdOffset = offset;
+            }
+            if (field.name == END && field.type == ISO && offset >= 0) {
+                endTimeOffset = offset;
+            }
+            offset = field.width == 0 ? Integer.MIN_VALUE : offset + field.width;
+            minLineLength += field.prefix.length + Math.max(1, field.width);
+        }
+        this.requestIdOffset = requestIdOffset;
+        this.endTimeOffset = endTimeOffset;
+        this.minLineLength = minLineLength;
+    }
+
+    public static LineFormat parse(String descriptor) {
+        final List<Integer> names = new ArrayList<>();
+        final List<Integer> types = new ArrayList<>();
+        final List<String> texts = new ArrayList<>();
+        int i = 0;
+        for (int open = descriptor.indexOf('{'); open >= 0; open = descriptor.indexOf('{', i)) {
+            final int close = descriptor.indexOf('}', open);
+            if (close < 0) {
+                throw new IllegalArgumentException("Field at " + open + " is not closed");
+            }
+            final String[] field = descriptor.substring(open + 1, close).split(":", 2);
+            final int name = indexOf(NAMES, field[0]);
+            if (name < 0 || names.contains(name)) {
+                throw new IllegalArgumentException("Field " + field[0]
+                        + " is unknown or repeated");
+            }
+            final int type = field.length == 1 ? defaultType(name) : indexOf(TYPES, field[1]);
+            final boolean time = name == START || name == END;
+            if (type < 0 || time != (type == ISO || type == MS)
+                    || (name == SERVICE && type != TEXT)) {
+                throw new IllegalArgumentException("Field " + field[0]
+                        + " does not support type " + field[1]);
+            }
+            names.add(name);
+            types.add(type);
+            texts.add(descriptor.substring(i, open));
+            i = close + 1;
+        }
+        if (names.size() != NAMES.length) {
+            throw new IllegalArgumentException("Format " + descriptor
+                    + " should have all fields " + String.join(", ", NAMES));
+        }
+        texts.add(descriptor.substring(i));
+        final Field[] fields = new Field[names.size()];
+        for (int f = 0; f < fields.length; ++f) {
+            final int name = names.get(f);
+            final int type = types.get(f);
+            final String text = texts.get(f);
+            final String next = texts.get(f + 1);
+            if (text.indexOf('\n') >= 0 || text.indexOf('}') >= 0) {
+                throw new IllegalArgumentException("Text [" + text + "] is not supported");
+            }
+            final int width = type == ISO ? ISO_BYTES : type == RAW && name != CALLER ? 8 : 0;
+            if (width == 0 && next.isEmpty() && f + 1 < fields.length) {
+                throw new IllegalArgumentException("Field " + NAMES[name]
+                        + " is not followed by text");
+            }
+            fields[f] = new Field(name, type, text.getBytes(), width,
+                    Swar.pattern(next.isEmpty() ? '\n' : next.charAt(0)));
+        }
+        return new LineFormat(fields, texts.get(fields.length).getBytes());
+    }
+
+    private static int defaultType(int name) {
+        switch (name) {
+            case START:
+            case END:
+                return ISO;
+            case SERVICE:
+                return TEXT;
+            default:
+                return RAW;
+        }
+    }
+
+    private static int indexOf(String[] values, String value) {
+        for (int i = 0; i < values.length; ++i) {
+            if (values[i].equals(value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // default layout is parsed by hand written LogLineParser
+    public boolean isDefault() {
+        return toString().equals(parse(DEFAULT).toString());
+    }
+
+    Field[] getFields() {
+        return fields;
+    }
+
+    byte[] getSuffix() {
+        return suffix;
+    }
+
+    // -1 if fields before raw request id are not fixed width
+    public int getRequestIdOffset() {
+        return requestIdOffset;
+    }
+
+    // -1 if end time is not iso or fields before it are not fixed width
+    public int getEndTimeOffset() {
+        return endTimeOffset;
+    }
+
+    public int getMinLineLength() {
+        return minLineLength;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder result = new StringBuilder();
+        for (Field field : fields) {
+            result.append(new String(field.prefix)).append('{').append(NAMES[field.name])
+                    .append(':').append(TYPES[field.type]).append('}');
+        }
+        return result.append(new String(suffix)).toString();
+    }
+}
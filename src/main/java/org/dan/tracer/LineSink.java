@@ -0,0 +1,6 @@
+package org.dan.tracer;
+
+// receives logged spans of a request as lines
+public interface LineSink {
+    void line(long callerSnapId, long snapId, int serviceId, long started, long ended);
+}
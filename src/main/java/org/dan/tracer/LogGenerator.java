@@ -0,0 +1,252 @@
+package org.dan.tracer;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Random;
+
+// synthetic log in format of LogLineParser:
+// live requests are interleaved, spans of a request are logged by end time
+public class LogGenerator {
+    public static final long DEFAULT_START = 1382523155000L; // 2013-10-23T10:12:35Z
+    private static final byte[] ID_CHARS = "abcdefghijklmnopqrstuvwxyz0123456789".getBytes();
+    private static final byte[] NULL_CALLER = "null".getBytes();
+    private static final byte[] SERVICE = "service".getBytes();
+    public static final int MAX_LINE_BYTES = 2 * 25 + 9 + SERVICE.length + 11 + 19;
+
+    private final Random random;
+    private final int spansPerRequest;
+    private final int services;
+    private final int maxRequestMs;
+    private final GeneratedRequest[] live;
+    private long clock;
+    private int skewMs;
+    private double malformedRatio;
+    private double orphanRatio;
+    private long lastRequestId;
+
+    public static void main(String[] args) throws IOException {
+        final GeneratorOptions options = new GeneratorOptions();
+        options.parse(args);
+        if (options.getRest().length > 0) {
+            options.error("Unknown options {}", String.join(" ", options.getRest()));
+        }
+        final GeneratorChannel inputCh = new GeneratorChannel(options.newGenerator(),
+                options.getLines(), options.getLinesPerSecond(), null);
+        final WritableByteChannel outputCh = options.getOutputCh();
+        final ByteBuffer buf = ByteBuffer.allocateDirect(1024 * 1024).order(LITTLE_ENDIAN);
+        try {
+            while (inputCh.read(buf) >= 0) {
+                buf.flip();
+                outputCh.write(buf);
+                buf.compact();
+            }
+            buf.flip();
+            while (buf.hasRemaining()) {
+                outputCh.write(buf);
+            }
+        } finally {
+            outputCh.close();
+        }
+    }
+
+    public LogGenerator(long seed, int liveRequests, int spansPerRequest, int services) {
+        this(seed, liveRequests, spansPerRequest, services, 1000, DEFAULT_START);
+    }
+
+    public LogGenerator(long seed, int liveRequests, int spansPerRequest,
+            int services, int maxRequestMs, long start) {
+        this.random = new Random(seed);
+        this.spansPerRequest = spansPerRequest;
+        this.services = services;
+        this.maxRequestMs = maxRequestMs;
+        this.clock = start;
+        this.live = new GeneratedRequest[liveRequests];
+    }
+
+    // lines of a request are logged up to skewMs out of end time order
+    public void setSkewMs(int skewMs) {
+        this.skewMs = skewMs;
+    }
+
+    public void setMalformedRatio(double malformedRatio) {
+        this.malformedRatio = malformedRatio;
+    }
+
+    // share of requests without root span line
+    public void setOrphanRatio(double orphanRatio) {
+        this.orphanRatio = orphanRatio;
+    }
+
+    private static class GeneratedRequest {
+        final long id;
+        final long[] spanIds;
+        final int[] parents;
+        final int[] serviceIds;
+        final long[] started;
+        final long[] ended;
+        final int[] order;
+        final long[] orderKeys;
+        int next;
+
+        GeneratedRequest(long id, int spans) {
+            this.id = id;
+            spanIds = new long[spans];
+            parents = new int[spans];
+            serviceIds = new int[spans];
+            started = new long[spans];
+            ended = new long[spans];
+            order = new int[spans];
+            orderKeys = new long[spans];
+        }
+    }
+
+    private GeneratedRequest newRequest() {
+        final boolean orphan = random.nextDouble() < orphanRatio;
+        final int spans = (orphan ? 2 : 1) + random.nextInt(2 * spansPerRequest - 1);
+        final GeneratedRequest request = new GeneratedRequest(randomId(), spans);
+        request.parents[0] = -1;
+        request.started[0] = clock;
+        request.ended[0] = clock + 1 + random.nextInt(maxRequestMs);
+        for (int i = 0; i < spans; ++i) {
+            request.spanIds[i] = randomId();
+            request.serviceIds[i] = 1 + random.nextInt(services);
+            request.order[i] = i;
+            if (i > 0) {
+                final int parent = random.nextInt(i);
+                final long parentStarted = request.started[parent];
+                final long parentEnded = request.ended[parent];
+                request.parents[i] = parent;
+                request.started[i] = parentStarted
+                        + nextLong(parentEnded - parentStarted);
+                request.ended[i] = request.started[i]
+                        + nextLong(parentEnded - request.started[i]);
+            }
+            request.orderKeys[i] = request.ended[i] + nextLong(skewMs + 1);
+        }
+        // children end before parents and are logged first
+        for (int i = 1; i < spans; ++i) {
+            final int span = request.order[i];
+            int j = i - 1;
+            while (j >= 0 && request.orderKeys[request.order[j]] > request.orderKeys[span]) {
+                request.order[j + 1] = request.order[j];
+                --j;
+            }
+            request.order[j + 1] = span;
+        }
+        if (orphan) {
+            for (int i = 0; i < spans; ++i) {
+                if (request.order[i] == 0) {
+                    System.arraycopy(request.order, i + 1, request.order, i, spans - i - 1);
+                    break;
+                }
+            }
+            request.order[spans - 1] = -1;
+        }
+        return request;
+    }
+
+    private long nextLong(long bound) {
+        if (bound <= 0) {
+            return 0;
+        }
+        return random.nextInt((int) Math.min(bound, Integer.MAX_VALUE));
+    }
+
+    private long randomId() {
+        long id = 0;
+        for (int i = 0; i < 8; ++i) {
+            id |= (long) ID_CHARS[random.nextInt(ID_CHARS.length)] << (i * 8);
+        }
+        return id;
+    }
+
+    public long getClock() {
+        return clock;
+    }
+
+    public long getLastRequestId() {
+        return lastRequestId;
+    }
+
+    // writes next line, output should have MAX_LINE_BYTES free;
+    // returns true if it is the last line of request getLastRequestId()
+    public boolean writeLine(ByteBuffer out) {
+        if (random.nextDouble() < malformedRatio) {
+            writeMalformedLine(out);
+            return false;
+        }
+        final int i = random.nextInt(live.length);
+        if (live[i] == null) {
+            live[i] = newRequest();
+        }
+        final GeneratedRequest request = live[i];
+        final int span = request.order[request.next++];
+        clock = Math.max(clock, request.ended[span]);
+        lastRequestId = request.id;
+        writeTimeStamp(out, request.started[span]);
+        out.put((byte) ' ');
+        writeTimeStamp(out, request.ended[span]);
+        out.put((byte) ' ');
+        out.putLong(request.id);
+        out.put((byte) ' ');
+        out.put(SERVICE);
+        writeNumber(out, request.serviceIds[span]);
+        out.put((byte) ' ');
+        final int parent = request.parents[span];
+        if (parent < 0) {
+            out.put(NULL_CALLER);
+        } else {
+            out.putLong(request.spanIds[parent]);
+        }
+        out.put((byte) '-').put((byte) '>');
+        out.putLong(request.spanIds[span]);
+        out.put((byte) '\n');
+        if (request.next == request.order.length
+                || request.order[request.next] < 0) {
+            live[i] = newRequest();
+            return true;
+        }
+        return false;
+    }
+
+    private void writeMalformedLine(ByteBuffer out) {
+        final int start = out.position();
+        writeTimeStamp(out, clock);
+        out.put((byte) ' ');
+        writeTimeStamp(out, clock);
+        out.put((byte) ' ');
+        out.putLong(randomId());
+        // cut the line at random place and garble the byte at the cut
+        out.position(start + random.nextInt(out.position() - start));
+        out.put(ID_CHARS[random.nextInt(ID_CHARS.length)]);
+        out.put((byte) '\n');
+    }
+
+    public ByteBuffer generate(int lines) {
+        final ByteBuffer out = ByteBuffer.allocate(lines * MAX_LINE_BYTES)
+                .order(LITTLE_ENDIAN);
+        for (int i = 0; i < lines; ++i) {
+            writeLine(out);
+        }
+        out.flip();
+        return out;
+    }
+
+    // 2013-10-23T10:13:04.978Z
+    static void writeTimeStamp(ByteBuffer out, long time) {
+        final int start = out.position();
+        LogLineParser.writeDateTime(out, time);
+        out.put(start + 10, (byte) 'T');
+        out.put((byte) 'Z');
+    }
+
+    private static void writeNumber(ByteBuffer out, int n) {
+        if (n >= 10) {
+            writeNumber(out, n / 10);
+        }
+        out.put((byte) ('0' + n % 10));
+    }
+}
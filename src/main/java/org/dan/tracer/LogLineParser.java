@@ -1,16 +1,13 @@
 package org.dan.tracer;
 
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
 import static java.util.concurrent.TimeUnit.DAYS;
-import static java.util.concurrent.TimeUnit.HOURS;
-import static java.util.concurrent.TimeUnit.MINUTES;
-import static java.util.concurrent.TimeUnit.SECONDS;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
-import java.time.LocalDateTime;
-import java.time.ZoneId;
 
 
 public class LogLineParser {
@@ -19,13 +16,27 @@ public class LogLineParser {
     public static final long NULL_SPAN = strToLong("null->");
     private static final short ARROW = (short) strToLong("->");
     private static final char LINE_END = '\n';
-    private static final int[] DAYS_IN_MONTH = sum(
-            0, 31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31);
+    public static final long INVALID_TIME = Long.MIN_VALUE;
+    // timestamp is loaded as 3 little endian words, d marks a digit
+    private static final long DATE_DIGITS = Swar.digitMask("dddd-dd-");
+    private static final long DATE_TEXT = Swar.layoutText("dddd-dd-");
+    private static final long DAY_DIGITS = Swar.digitMask("dd");
+    private static final long DAY_TIME_DIGITS = Swar.digitMask("ddTdd:dd");
+    private static final long DAY_TIME_TEXT = Swar.layoutText("ddTdd:dd");
+    private static final long SECONDS_DIGITS = Swar.digitMask(":dd.dddZ");
+    private static final long SECONDS_TEXT = Swar.layoutText(":dd.dddZ");
     public static final byte[] ZERO_TIME_BYTES = "0000-00-00 00:00:00.000".getBytes();
 
-    private final Dictionary serviceDictionary;
-    private final RequestRepo requestRepo;
+    // tail of input shorter than this is not a line
+    private static final int MIN_LINE_LENGTH = 75;
+
+    protected final Dictionary serviceDictionary;
+    protected final RequestRepo requestRepo;
     private boolean searchNewLine;
+    protected Metrics.Counters counters = Metrics.detached();
+    private long cachedDate = strToLong("1970-01-");
+    private short cachedDay = (short) strToLong("01");
+    private long cachedDayMs;
 
     void setSearchNewLine(boolean searchNewLine) {
         this.searchNewLine = searchNewLine;
@@ -40,34 +51,42 @@ public class LogLineParser {
         this.requestRepo = requestRepo;
     }
 
+    public void setCounters(Metrics.Counters counters) {
+        this.counters = counters;
+    }
+
+    public int getMinLineLength() {
+        return MIN_LINE_LENGTH;
+    }
+
+    // rest of line is skipped
+    long malformed() {
+        searchNewLine = true;
+        counters.add(Metrics.MALFORMED_LINES, 1);
+        return 0;
+    }
+
     // 2013-10-23T10:13:04.978Z 2013-10-23T10:13:04.989Z fmpezpru service7 tiaka23p->t4kytvis
     public long parse(ByteBuffer in) {
-        while (searchNewLine) {
-            for (int i = in.remaining(); i > 0; --i) {
-                if (in.get() == '\n') {
-                    searchNewLine = false;
-                    return 0;
-                }
-            }
+        if (searchNewLine) {
+            skipLine(in);
             return 0;
         }
-        final long started = readTimeStamp(in);
-        if (in.get() != ' ') {
-            searchNewLine = true;
-            return 0;
+        final long started = readTime(in);
+        if (in.get() != ' ' || started == INVALID_TIME) {
+            return malformed();
         }
-        final long ended = readTimeStamp(in);
-        if (in.get() != ' ') {
-            searchNewLine = true;
-            return 0;
+        final long ended = readTime(in);
+        if (in.get() != ' ' || ended == INVALID_TIME) {
+            return malformed();
         }
         final long requestId = in.getLong();
         if (in.get() != ' ') {
-            searchNewLine = true;
-            return 0;
+            return malformed();
         }
-        final ByteBuffer serviceName = readToken(in);
-        if (serviceName == null) {
+        final int serviceStart = in.position();
+        final int serviceLength = readToken(in);
+        if (serviceLength < 0) {
             return 0;
         }
         long callerSpan = in.getLong();
@@ -77,18 +96,30 @@ public class LogLineParser {
         } else {
             final short arrow = in.getShort();
             if (arrow != ARROW) {
-                searchNewLine = true;
-                return 0;
+                return malformed();
             }
         }
         final long span = in.getLong();
         if (LINE_END == in.get()) {
-            requestRepo.line(serviceDictionary.add(serviceName),
+            requestRepo.line(serviceDictionary.add(in, serviceStart, serviceLength),
                     requestId, started, ended, callerSpan, span);
+            counters.add(Metrics.LINES, 1);
+        } else {
+            counters.add(Metrics.MALFORMED_LINES, 1);
         }
         return ended;
     }
 
+    protected void skipLine(ByteBuffer in) {
+        final int lineEnd = Swar.indexOf(in, in.position(), in.limit(), Swar.LINE_ENDS);
+        if (lineEnd < 0) {
+            in.position(in.limit());
+        } else {
+            in.position(lineEnd + 1);
+            searchNewLine = false;
+        }
+    }
+
     private static long strToLong(String s) {
         return strToLong(s, s.length());
     }
@@ -108,99 +139,107 @@ public class LogLineParser {
         return result;
     }
 
-    private ByteBuffer readToken(ByteBuffer in) {
-        int start = in.position();
-        while (true) {
-            int b = in.get();
-            if (b == ' ') {
-                break;
-            } else if (b == LINE_END) {
-                searchNewLine = true;
-                return null;
-            }
+    // length of token, space is skipped; line is skipped if it ends first
+    private int readToken(ByteBuffer in) {
+        final int start = in.position();
+        final int end = Swar.indexOf(in, start, in.limit(), Swar.SPACES, Swar.LINE_ENDS);
+        if (end < 0) {
+            in.position(in.limit());
+            throw new BufferUnderflowException();
+        }
+        in.position(end + 1);
+        if (in.get(end) == LINE_END) {
+            counters.add(Metrics.MALFORMED_LINES, 1);
+            return -1;
         }
-        int end = in.position();
-        byte [] token = new byte[end - start - 1];
-        in.position(start);
-        in.get(token, 0, token.length);
-        in.position(end); // space
-        return ByteBuffer.wrap(token);
+        return end - start;
     }
 
-    // 2013-10-23T10:13:04.945Z
+    // 2013-10-23T10:13:04.945Z, INVALID_TIME if it is malformed
     public static long readTimeStamp(ByteBuffer in) {
-        final int year = parseYear(in);
-        return yearsToMs(year)
-                + monthsToMs(parseMonth(in), year)
-                + DAYS.toMillis(parseDay(in))
-                + HOURS.toMillis(parseHours(in))
-                + MINUTES.toMillis(parseMinutes(in))
-                + SECONDS.toMillis(parseSeconds(in))
-                + parseMs(in);
+        final long date = in.getLong();
+        final long dayTime = in.getLong();
+        final long seconds = in.getLong();
+        final long dayMs = dayStartMs(date, dayTime);
+        final long timeMs = timeOfDayMs(dayTime, seconds);
+        return dayMs == INVALID_TIME || timeMs < 0 ? INVALID_TIME : dayMs + timeMs;
     }
 
-    private static int parseYear(ByteBuffer in) {
-        return parseInt(in.getInt());
-    }
-
-    // -10-
-    private static int parseMonth(ByteBuffer in) {
-        return parseHours(in);
-    }
-
-    // 23
-    private static int parseDay(ByteBuffer in) {
-        return parseInt(in.getShort()) - 1;
-    }
-
-    private static int parseInt(int text) {
-        int result = 0;
-        while (text > 0) {
-            result = result * 10 + (0xff & text) - '0';
-            text >>>= 8;
+    // consecutive lines mostly share date, so its start is computed once
+    protected long readTime(ByteBuffer in) {
+        final long date = in.getLong();
+        final long dayTime = in.getLong();
+        final long seconds = in.getLong();
+        if (date != cachedDate || (short) dayTime != cachedDay) {
+            final long dayMs = dayStartMs(date, dayTime);
+            if (dayMs == INVALID_TIME) {
+                return INVALID_TIME;
+            }
+            cachedDate = date;
+            cachedDay = (short) dayTime;
+            cachedDayMs = dayMs;
         }
-        return result;
-    }
-
-    private static long yearsToMs(int years) {
-        return YEAR_TO_MS[years - BASE_YEAR];
+        final long timeMs = timeOfDayMs(dayTime, seconds);
+        return timeMs < 0 ? INVALID_TIME : cachedDayMs + timeMs;
     }
 
-    private static long monthsToMs(int month, int year) {
-        int days = DAYS_IN_MONTH[month - 1];
-        if (leapyear(year) && month > 2) {
-            ++days;
+    // 2013-10-23
+    private static long dayStartMs(long date, long dayTime) {
+        if ((Swar.digitsMismatch(date, DATE_DIGITS, DATE_TEXT)
+                | Swar.digitsMismatch(dayTime & DAY_DIGITS, DAY_DIGITS, 0)) != 0) {
+            return INVALID_TIME;
         }
-        return DAYS.toMillis(days);
-    }
-
-    private static int[] sum(int... a) {
-        int s = 0;
-        for (int i = 0; i < a.length; ++i) {
-            s += a[i];
-            a[i] = s;
+        final int year = Swar.digits(date, 0, 4);
+        final int month = Swar.digits(date, 5, 2);
+        final int day = Swar.digits(dayTime, 0, 2);
+        if (((month - 1) | (12 - month)) < 0
+                || ((day - 1) | (daysInMonth(year, month) - day)) < 0) {
+            return INVALID_TIME;
         }
-        return a;
+        return DAYS.toMillis(daysFromCivil(year, month, day));
     }
 
-    // T10:
-    private static int parseHours(ByteBuffer in) {
-        return parseInt((in.getInt() >>> 8) & 0xffff);
+    // T10:13:04.945Z, negative if it is malformed
+    private static long timeOfDayMs(long dayTime, long seconds) {
+        final int hour = Swar.digits(dayTime, 3, 2);
+        final int minute = Swar.digits(dayTime, 6, 2);
+        final int second = Swar.digits(seconds, 1, 2);
+        final int outOfRange = ((23 - hour) | (59 - minute) | (59 - second)) >>> 31;
+        if ((Swar.digitsMismatch(dayTime, DAY_TIME_DIGITS, DAY_TIME_TEXT)
+                | Swar.digitsMismatch(seconds, SECONDS_DIGITS, SECONDS_TEXT)
+                | outOfRange) != 0) {
+            return -1;
+        }
+        return ((hour * 60L + minute) * 60L + second) * 1000L + Swar.digits(seconds, 4, 3);
     }
 
-    // 13
-    private static int parseMinutes(ByteBuffer in) {
-        return parseInt(in.getShort());
+    private static int daysInMonth(int year, int month) {
+        return DAYS_PER_MONTH[month - 1 + (leapyear(year) ? 12 : 0)];
     }
 
-    // :04.
-    private static int parseSeconds(ByteBuffer in) {
-        return parseHours(in);
+    // proleptic gregorian days since 1970-01-01
+    static long daysFromCivil(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        final int era = Math.floorDiv(year, 400);
+        final int yearOfEra = year - era * 400;
+        final int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        final int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468L;
     }
 
-    // 945Z
-    private static int parseMs(ByteBuffer in) {
-        return parseInt(in.getInt() & (~0 >>> 8));
+    // year << 9 | day << 4 | month
+    static int civilFromDays(long days) {
+        days += 719468L;
+        final long era = Math.floorDiv(days, 146097L);
+        final int dayOfEra = (int) (days - era * 146097L);
+        final int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524
+                - dayOfEra / 146096) / 365;
+        final int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        final int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        final int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        final int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        final int year = (int) (yearOfEra + era * 400) + (month <= 2 ? 1 : 0);
+        return year << 9 | (day << 4) | month;
     }
 
     private static boolean leapyear(int year) {
@@ -210,40 +249,18 @@ public class LogLineParser {
     }
 
     private static long MSECS_DAY = 24L * 60L * 60L * 1000L;
-    private static final LocalDateTime now = LocalDateTime.now(ZoneId.of("UTC"));
+    // 4 digit years only
+    static final long MIN_TIME = DAYS.toMillis(daysFromCivil(0, 1, 1));
+    static final long MAX_TIME = DAYS.toMillis(daysFromCivil(10000, 1, 1));
 
     private static final int DAYS_PER_MONTH[] = new int[] {
             31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31,
             31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
 
-    private static final int BASE_YEAR = 1970;
-    private static final int[] DAY_TO_YEAR_MONTH;
-    private static final long[] YEAR_TO_MS;
-    private static final int[] FOUR_DIGIT = new int[now.getYear() + 2];
-    private static final short[] TWO_DIGIT = new short[100];
+    static final int[] FOUR_DIGIT = new int[10000];
+    static final short[] TWO_DIGIT = new short[100];
 
     static  {
-        long started = System.currentTimeMillis();
-        final int stopYear = now.getYear() + 2;
-        DAY_TO_YEAR_MONTH = new int[(stopYear - BASE_YEAR) * 366];
-        YEAR_TO_MS = new long[stopYear - BASE_YEAR];
-        int dayno = 0;
-        long yearMs = 0;
-        for (int year = 1970; year < stopYear; ++year) {
-            int leapShift = leapyear(year) ? 12 : 0;
-            for (int month = 0; month < 12; ++month) {
-                final int days = DAYS_PER_MONTH[month + leapShift];
-                for (int day = 1; day <= days; ++day) {
-                    YEAR_TO_MS[year - BASE_YEAR] = yearMs;
-                    DAY_TO_YEAR_MONTH[dayno] = year << 9 | (day << 4) | (month + 1);
-                    ++dayno;
-                }
-            }
-            yearMs += (leapShift / 12L + 365L) * MSECS_DAY;
-        }
-        long ended = System.currentTimeMillis();
-        logger.info("Date table init took {} ms", ended - started);
-
         for (int i = 0; i < TWO_DIGIT.length; ++i) {
             TWO_DIGIT[i] = (short) strToLong(String.valueOf(i), 2);
         }
@@ -254,18 +271,17 @@ public class LogLineParser {
 
     // 2013-10-23 10:13:04.945
     public static void writeDateTime(ByteBuffer outputBuf, long time) {
-        final int dayNo = (int) (time / MSECS_DAY);
-        if (dayNo < 0 || dayNo >= DAY_TO_YEAR_MONTH.length) {
+        if (time < MIN_TIME || time >= MAX_TIME) {
             logger.error("Timestamp {} is out of range", time);
             outputBuf.put(ZERO_TIME_BYTES);
         } else {
-            writeDatePart(outputBuf, DAY_TO_YEAR_MONTH[dayNo]);
+            writeDatePart(outputBuf, civilFromDays(Math.floorDiv(time, MSECS_DAY)));
             writeTimePart(outputBuf, time);
         }
     }
 
     private static void writeTimePart(ByteBuffer outputBuf, long time) {
-        int dayClock = (int) (time % MSECS_DAY);
+        int dayClock = (int) Math.floorMod(time, MSECS_DAY);
         final int ms = dayClock % 1000;
         dayClock /= 1000L;
         {
@@ -320,7 +336,7 @@ public class LogLineParser {
     }
 
     public static String timeToString(long time) {
-        ByteBuffer b = ByteBuffer.allocate(ZERO_TIME_BYTES.length + 1);
+        ByteBuffer b = ByteBuffer.allocate(ZERO_TIME_BYTES.length + 1).order(LITTLE_ENDIAN);
         writeDateTime(b, time);
         return new String(b.array(), 0, ZERO_TIME_BYTES.length);
     }
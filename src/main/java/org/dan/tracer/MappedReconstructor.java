@@ -0,0 +1,235 @@
+package org.dan.tracer;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static org.dan.tracer.ShardedReconstructor.shardOf;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+// a window is mapped once, by the worker last to finish the previous one,
+// and split at line ends into a chunk per worker, which finds lines of its chunk and lists them by shard,
+// then every worker parses lines of its shard from all chunks in file order;
+// so line scanning is parallel and parsed lines are disjoint by request id
+public class MappedReconstructor {
+    private static final Logger logger = LoggerFactory.getLogger(MappedReconstructor.class);
+
+    private final CommandLineOptions options;
+    private final FileChannel inputCh;
+    private final WritableByteChannel outputCh;
+    private final Lock outputLock = new ReentrantLock();
+    private final AtomicLong logTime = new AtomicLong();
+    private final AtomicLong parsedLines = new AtomicLong();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final int requestIdOffset;
+    private final int shards;
+    private final Phaser phaser;
+    // start and end pairs of lines of chunk k and shard s at k * shards + s
+    private final int[][] lines;
+    private final int[] lineCounts;
+    private final long size;
+    // current window, its file offset and end of its last whole line;
+    // written by the worker advancing phaser, so others see them after it
+    private ByteBuffer window;
+    private long offset;
+    private int end;
+
+    public MappedReconstructor(CommandLineOptions options,
+            FileChannel inputCh, WritableByteChannel outputCh) {
+        this.options = options;
+        this.inputCh = inputCh;
+        this.outputCh = outputCh;
+        this.requestIdOffset = options.getRequestIdOffset();
+        this.shards = options.getThreads();
+        this.phaser = new Phaser(shards) {
+            protected boolean onAdvance(int phase, int registeredParties) {
+                // odd phase ends parsing of the window
+                if (phase % 2 == 1 && failure.get() == null) {
+                    try {
+                        nextWindow();
+                    } catch (IOException | RuntimeException e) {
+                        logger.error("Failed to map window at {}", offset, e);
+                        failure.compareAndSet(null, e);
+                    }
+                }
+                return registeredParties == 0;
+            }
+        };
+        this.lines = new int[shards * shards][];
+        this.lineCounts = new int[shards * shards];
+        for (int i = 0; i < lines.length; ++i) {
+            lines[i] = new int[64];
+        }
+        try {
+            this.size = inputCh.size();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void reconstructTraces() throws IOException, InterruptedException {
+        final Thread[] workers = new Thread[shards];
+        try {
+            mapWindow();
+            for (int i = 0; i < workers.length; ++i) {
+                workers[i] = startWorker(i);
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } finally {
+            inputCh.close();
+            outputCh.close();
+        }
+        final Throwable e = failure.get();
+        if (e != null) {
+            throw new RuntimeException("Shard failed", e);
+        }
+    }
+
+    private Thread startWorker(int shardNo) {
+        final Shard shard = new Shard(options, shardNo, outputCh, outputLock,
+                logTime, parsedLines);
+        final Thread worker = new Thread(() -> {
+            try {
+                try {
+                    scan(shard, shardNo);
+                } finally {
+                    // others waiting for this worker go on and see failure
+                    phaser.arriveAndDeregister();
+                }
+                if (failure.get() == null) {
+                    shard.finish();
+                }
+            } catch (IOException | RuntimeException | Error e) {
+                logger.error("Shard {} failed", shardNo, e);
+                failure.compareAndSet(null, e);
+                shard.abort();
+            }
+        }, "shard-" + shardNo);
+        worker.start();
+        return worker;
+    }
+
+    private void scan(Shard shard, int shardNo) {
+        while (window != null) {
+            // parsing moves position and limit, so each worker has own view
+            final ByteBuffer view = window.duplicate().order(LITTLE_ENDIAN);
+            final int end = this.end;
+            listLines(view, shardNo, chunkStart(view, shardNo, end),
+                    chunkStart(view, shardNo + 1, end));
+            phaser.arriveAndAwaitAdvance();
+            if (failure.get() != null) {
+                return;
+            }
+            shard.tick();
+            for (int chunk = 0; chunk < shards; ++chunk) {
+                final int[] chunkLines = lines[chunk * shards + shardNo];
+                final int count = lineCounts[chunk * shards + shardNo];
+                for (int i = 0; i < count; i += 2) {
+                    view.limit(chunkLines[i + 1]).position(chunkLines[i]);
+                    shard.parseLine(view);
+                }
+                lineCounts[chunk * shards + shardNo] = 0;
+            }
+            phaser.arriveAndAwaitAdvance();
+            if (failure.get() != null) {
+                return;
+            }
+        }
+    }
+
+    private void nextWindow() throws IOException {
+        options.getMetrics().input().add(Metrics.BYTES_IN, end);
+        offset += end;
+        mapWindow();
+    }
+
+    // line longer than window is skipped up to its end
+    private void mapWindow() throws IOException {
+        final Metrics.Counters input = options.getMetrics().input();
+        boolean skipping = false;
+        while (offset < size) {
+            final int length = (int) Math.min(options.getMmapWindowBytes(), size - offset);
+            window = inputCh.map(READ_ONLY, offset, length).order(LITTLE_ENDIAN);
+            if (skipping) {
+                final int lineEnd = indexOfLineEnd(window, 0, length) + 1;
+                input.add(Metrics.BYTES_IN, lineEnd == 0 ? length : lineEnd);
+                offset += lineEnd == 0 ? length : lineEnd;
+                skipping = lineEnd == 0;
+                continue;
+            }
+            end = offset + length == size ? length : lastLineEnd(window, length);
+            if (end > 0) {
+                return;
+            }
+            logger.error("Skip line at {} longer than mmap window", offset);
+            input.add(Metrics.MALFORMED_LINES, 1);
+            input.add(Metrics.BYTES_IN, length);
+            offset += length;
+            skipping = true;
+        }
+        window = null;
+        end = 0;
+    }
+
+    // chunk starts right after a line end
+    private int chunkStart(ByteBuffer window, int chunk, int end) {
+        final int nominal = (int) ((long) end * chunk / shards);
+        if (nominal == 0 || nominal >= end) {
+            return nominal == 0 ? 0 : end;
+        }
+        final int lineEnd = indexOfLineEnd(window, nominal - 1, end);
+        return lineEnd < 0 ? end : lineEnd + 1;
+    }
+
+    // chunk is listed by the worker parsing shard of same number
+    private void listLines(ByteBuffer window, int chunk, int from, int to) {
+        final Metrics.Counters counters = options.getMetrics().parser(chunk);
+        int lineStart = from;
+        while (lineStart < to) {
+            int lineEnd = indexOfLineEnd(window, lineStart, to) + 1;
+            if (lineEnd == 0) {
+                lineEnd = to;
+            }
+            if (lineEnd - lineStart > requestIdOffset + 8) {
+                final int index = chunk * shards
+                        + shardOf(window.getLong(lineStart + requestIdOffset), shards);
+                final int count = lineCounts[index];
+                if (count == lines[index].length) {
+                    lines[index] = Arrays.copyOf(lines[index], count * 2);
+                }
+                lines[index][count] = lineStart;
+                lines[index][count + 1] = lineEnd;
+                lineCounts[index] = count + 2;
+            } else {
+                counters.add(Metrics.MALFORMED_LINES, 1);
+            }
+            lineStart = lineEnd;
+        }
+    }
+
+    static int lastLineEnd(ByteBuffer window, int length) {
+        for (int i = length - 1; i >= 0; --i) {
+            if (window.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    static int indexOfLineEnd(ByteBuffer window, int from, int to) {
+        return Swar.indexOf(window, from, to, Swar.LINE_ENDS);
+    }
+}
@@ -0,0 +1,175 @@
+package org.dan.tracer;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.List;
+import java.util.PriorityQueue;
+
+// k-way merge of logs sorted by end time, e.g. one file per host;
+// every log is read through own buffer and whole lines are passed on,
+// a line longer than free space of dst is passed in parts;
+// iso end time is compared as text at fixed offset of the layout
+public class MergedLogChannel implements ReadableByteChannel {
+    private static final Logger logger = LoggerFactory.getLogger(MergedLogChannel.class);
+    // 2013-10-23T10:12:35.271Z 2013-10-23T10:12:35.471Z
+    static final int END_TIME_OFFSET = 25;
+    static final int END_TIME_LENGTH = 23;
+
+    private final int endTimeOffset;
+    private final PriorityQueue<Source> heads;
+    private final List<? extends ReadableByteChannel> inputChs;
+    private final Metrics.Counters counters;
+    // source of line passed in part, its rest goes first
+    private Source current;
+    private boolean open = true;
+
+    private static class Source {
+        final ReadableByteChannel inputCh;
+        final ByteBuffer buf;
+        int lineEnd;
+        boolean eof;
+        boolean skipLine;
+
+        Source(ReadableByteChannel inputCh, int bufferBytes) {
+            this.inputCh = inputCh;
+            this.buf = ByteBuffer.allocateDirect(bufferBytes).order(LITTLE_ENDIAN);
+            buf.flip();
+        }
+    }
+
+    public MergedLogChannel(List<? extends ReadableByteChannel> inputChs,
+            int bufferBytes) throws IOException {
+        this(inputChs, bufferBytes, END_TIME_OFFSET);
+    }
+
+    public MergedLogChannel(List<? extends ReadableByteChannel> inputChs,
+            int bufferBytes, int endTimeOffset) throws IOException {
+        this(inputChs, bufferBytes, endTimeOffset, Metrics.detached());
+    }
+
+    // counters get lines skipped as longer than bufferBytes
+    public MergedLogChannel(List<? extends ReadableByteChannel> inputChs,
+            int bufferBytes, int endTimeOffset, Metrics.Counters counters)
+            throws IOException {
+        this.inputChs = inputChs;
+        this.endTimeOffset = endTimeOffset;
+        this.counters = counters;
+        heads = new PriorityQueue<>(Math.max(1, inputChs.size()), this::compareEndTime);
+        for (ReadableByteChannel inputCh : inputChs) {
+            final Source source = new Source(inputCh, bufferBytes);
+            if (nextLine(source)) {
+                heads.add(source);
+            }
+        }
+    }
+
+    // lines without end time go first, parser drops them anyway
+    private int compareEndTime(Source a, Source b) {
+        final int aStart = a.buf.position();
+        final int bStart = b.buf.position();
+        final boolean aHasTime = a.lineEnd - aStart > endTimeOffset + END_TIME_LENGTH;
+        final boolean bHasTime = b.lineEnd - bStart > endTimeOffset + END_TIME_LENGTH;
+        if (!aHasTime || !bHasTime) {
+            return Boolean.compare(aHasTime, bHasTime);
+        }
+        for (int i = endTimeOffset; i < endTimeOffset + END_TIME_LENGTH; ++i) {
+            final int diff = a.buf.get(aStart + i) - b.buf.get(bStart + i);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return 0;
+    }
+
+    // finds end of next line, lineEnd is right after '\n' or at limit for last line
+    private boolean nextLine(Source source) throws IOException {
+        final ByteBuffer buf = source.buf;
+        int from = buf.position();
+        while (true) {
+            for (int i = from; i < buf.limit(); ++i) {
+                if (buf.get(i) == '\n') {
+                    if (source.skipLine) {
+                        source.skipLine = false;
+                        buf.position(i + 1);
+                        continue;
+                    }
+                    source.lineEnd = i + 1;
+                    return true;
+                }
+            }
+            if (source.eof) {
+                source.lineEnd = buf.limit();
+                return buf.hasRemaining() && !source.skipLine;
+            }
+            if (buf.position() == 0 && buf.limit() == buf.capacity()) {
+                if (!source.skipLine) {
+                    logger.error("Skip line longer than read buffer");
+                    counters.add(Metrics.MALFORMED_LINES, 1);
+                    source.skipLine = true;
+                }
+                buf.position(buf.limit());
+            }
+            from = buf.limit() - buf.position();
+            buf.compact();
+            source.eof = source.inputCh.read(buf) < 0;
+            buf.flip();
+        }
+    }
+
+    public int read(ByteBuffer dst) throws IOException {
+        int copied = 0;
+        while (dst.hasRemaining() && (current != null || !heads.isEmpty())) {
+            final Source source = current == null ? heads.poll() : current;
+            current = null;
+            final ByteBuffer buf = source.buf;
+            final boolean lastLine = buf.get(source.lineEnd - 1) != '\n';
+            final int lineLength = source.lineEnd - buf.position() + (lastLine ? 1 : 0);
+            if (dst.remaining() < lineLength && copied > 0) {
+                // whole line is passed on next read
+                heads.add(source);
+                break;
+            }
+            final int limit = buf.limit();
+            buf.limit(Math.min(source.lineEnd, buf.position() + dst.remaining()));
+            copied += buf.remaining();
+            dst.put(buf);
+            buf.limit(limit);
+            if (buf.position() < source.lineEnd) {
+                current = source;
+                break;
+            }
+            if (lastLine) {
+                if (!dst.hasRemaining()) {
+                    current = source;
+                    break;
+                }
+                dst.put((byte) '\n');
+                ++copied;
+            }
+            if (nextLine(source)) {
+                heads.add(source);
+            }
+        }
+        if (copied == 0 && current == null && heads.isEmpty()) {
+            return -1;
+        }
+        return copied;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    public void close() throws IOException {
+        open = false;
+        for (ReadableByteChannel inputCh : inputChs) {
+            inputCh.close();
+        }
+    }
+}
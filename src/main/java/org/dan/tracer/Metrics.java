@@ -0,0 +1,136 @@
+package org.dan.tracer;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// every thread writes own slot of counters with lazySet, so update costs
+// as plain store and dump thread sums slots without locks
+public class Metrics {
+    private static final Logger logger = LoggerFactory.getLogger(Metrics.class);
+
+    public static final int LINES = 0;
+    public static final int MALFORMED_LINES = 1;
+    public static final int EMITTED_REQUESTS = 2;
+    public static final int DROPPED_REQUESTS = 3;
+    public static final int LIVE_REQUESTS = 4;
+    public static final int LIVE_SPANS = 5;
+    public static final int SPILLED_REQUESTS = 6;
+    public static final int EMIT_LATENCY_SUM_MS = 7;
+    public static final int EMIT_LATENCY_MAX_MS = 8;
+    public static final int BYTES_IN = 9;
+    public static final int BYTES_OUT = 10;
+    public static final int INPUT_STALLS = 11;
+    public static final int OUTPUT_STALLS = 12;
+    private static final String[] NAMES = {
+            "lines", "malformed_lines", "emitted_requests", "dropped_requests",
+            "live_requests", "live_spans", "spilled_requests",
+            "emit_latency_sum_ms", "emit_latency_max_ms",
+            "bytes_in", "bytes_out", "input_stalls", "output_stalls"};
+    private static final int COUNTERS = NAMES.length;
+    private static final int INPUT_SLOT = 0;
+    private static final int OUTPUT_SLOT = 1;
+    private static final int PARSER_SLOTS = 2;
+
+    private final AtomicLongArray values;
+
+    public Metrics(int parsers) {
+        values = new AtomicLongArray((PARSER_SLOTS + parsers) * COUNTERS);
+    }
+
+    // counters not seen by any dump
+    public static Counters detached() {
+        return new Metrics(0).input();
+    }
+
+    public class Counters {
+        private final int base;
+
+        private Counters(int slot) {
+            this.base = slot * COUNTERS;
+        }
+
+        public void add(int counter, long n) {
+            values.lazySet(base + counter, values.get(base + counter) + n);
+        }
+
+        public void set(int counter, long n) {
+            values.lazySet(base + counter, n);
+        }
+
+        public void max(int counter, long n) {
+            if (values.get(base + counter) < n) {
+                values.lazySet(base + counter, n);
+            }
+        }
+
+        public long get(int counter) {
+            return values.get(base + counter);
+        }
+    }
+
+    // thread reading input
+    public Counters input() {
+        return new Counters(INPUT_SLOT);
+    }
+
+    // thread writing output
+    public Counters output() {
+        return new Counters(OUTPUT_SLOT);
+    }
+
+    // parser thread or shard
+    public Counters parser(int index) {
+        return new Counters(PARSER_SLOTS + index);
+    }
+
+    public long get(int counter) {
+        long result = 0;
+        for (int i = counter; i < values.length(); i += COUNTERS) {
+            result = counter == EMIT_LATENCY_MAX_MS
+                    ? Math.max(result, values.get(i))
+                    : result + values.get(i);
+        }
+        return result;
+    }
+
+    // one "name value" line per counter, file is replaced atomically
+    public void dump(Path path) {
+        final StringBuilder text = new StringBuilder();
+        for (int counter = 0; counter < COUNTERS; ++counter) {
+            text.append(NAMES[counter]).append(' ').append(get(counter)).append('\n');
+        }
+        final Path tmp = Paths.get(path + ".tmp");
+        try {
+            Files.write(tmp, text.toString().getBytes());
+            Files.move(tmp, path, ATOMIC_MOVE, REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.error("Failed to dump metrics to {}", path, e);
+        }
+    }
+
+    // daemon thread dumps metrics every periodMs till interrupted
+    public Thread startDump(Path path, long periodMs) {
+        final Thread dumper = new Thread(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(periodMs);
+                    dump(path);
+                }
+            } catch (InterruptedException e) {
+                // tracer is done
+            }
+        }, "metrics");
+        dumper.setDaemon(true);
+        dumper.start();
+        return dumper;
+    }
+}
@@ -0,0 +1,123 @@
+package org.dan.tracer;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// reader thread fills ring of buffers from delegate while parser consumes
+// filled ones; lines straddling buffers are glued by parser's compact
+public class ReadAheadChannel implements ReadableByteChannel {
+    private static final Logger logger = LoggerFactory.getLogger(ReadAheadChannel.class);
+    private static final ByteBuffer END_OF_INPUT = ByteBuffer.allocate(0);
+
+    private final ReadableByteChannel inputCh;
+    private final BlockingQueue<ByteBuffer> filled;
+    private final BlockingQueue<ByteBuffer> free;
+    private final Thread reader;
+    private final long pollMs;
+    private volatile IOException failure;
+    private volatile boolean open = true;
+    private ByteBuffer buffer;
+    private Metrics.Counters counters = Metrics.detached();
+
+    public ReadAheadChannel(ReadableByteChannel inputCh, int bufferBytes, int buffers) {
+        this(inputCh, bufferBytes, buffers, 0);
+    }
+
+    // read returns 0 if nothing is read for pollMs, 0 means wait for input
+    public ReadAheadChannel(ReadableByteChannel inputCh, int bufferBytes,
+            int buffers, long pollMs) {
+        this.inputCh = inputCh;
+        this.pollMs = pollMs;
+        filled = new ArrayBlockingQueue<>(buffers + 1);
+        free = new ArrayBlockingQueue<>(buffers);
+        for (int i = 0; i < buffers; ++i) {
+            free.add(ByteBuffer.allocateDirect(bufferBytes));
+        }
+        reader = new Thread(this::fill, "reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private void fill() {
+        try {
+            while (open) {
+                final ByteBuffer freeBuf = free.take();
+                final int read = inputCh.read(freeBuf);
+                freeBuf.flip();
+                if (read < 0) {
+                    break;
+                }
+                filled.put(freeBuf);
+            }
+        } catch (InterruptedException e) {
+            failure = new IOException(e);
+        } catch (IOException e) {
+            if (open) {
+                logger.error("Failed to read input", e);
+            }
+            failure = e;
+        } finally {
+            filled.offer(END_OF_INPUT);
+        }
+    }
+
+    // stalls of parser waiting for reader
+    public void setCounters(Metrics.Counters counters) {
+        this.counters = counters;
+    }
+
+    public int read(ByteBuffer dst) throws IOException {
+        if (buffer == END_OF_INPUT) {
+            return -1;
+        }
+        if (buffer == null) {
+            buffer = filled.poll();
+            if (buffer == null) {
+                counters.add(Metrics.INPUT_STALLS, 1);
+                try {
+                    buffer = pollMs > 0 ? filled.poll(pollMs, MILLISECONDS) : filled.take();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                if (buffer == null) {
+                    return 0;
+                }
+            }
+            if (buffer == END_OF_INPUT) {
+                if (failure != null) {
+                    throw failure;
+                }
+                return -1;
+            }
+        }
+        final int n = Math.min(dst.remaining(), buffer.remaining());
+        final int limit = buffer.limit();
+        buffer.limit(buffer.position() + n);
+        dst.put(buffer);
+        buffer.limit(limit);
+        if (!buffer.hasRemaining()) {
+            buffer.clear();
+            free.add(buffer);
+            buffer = null;
+        }
+        return n;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    public void close() throws IOException {
+        open = false;
+        reader.interrupt();
+        inputCh.close();
+    }
+}
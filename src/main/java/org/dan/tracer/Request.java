@@ -1,7 +1,6 @@
 package org.dan.tracer;
 
 import static org.dan.tracer.LogLineParser.NULL_SPAN;
-import static org.dan.tracer.Span.ensureSpace;
 
 import com.koloboke.collect.map.hash.HashLongObjMap;
 import com.koloboke.collect.map.hash.HashLongObjMaps;
@@ -11,42 +10,182 @@ import org.slf4j.LoggerFactory;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.List;
 
 public class Request {
     private static final Logger logger = LoggerFactory.getLogger(Request.class);
-    private static final byte[] ID_BYTES = "{\"id\":\"".getBytes();
-    private static final byte[] ROOT_BYTES = "\",\"root\":".getBytes();
-    private static final byte[] TERMINATOR_BYTES = "}\n".getBytes();
 
-    private final HashLongObjMap<Span> snapMap = HashLongObjMaps.newMutableMap();
+    private HashLongObjMap<Span> snapMap;
     private final long requestId;
     private long oldestLine;
+    private long lastLineAt;
+    // spans known only as callers, their lines are not seen yet
+    protected int unresolved;
+    protected boolean rooted;
+    private boolean queued;
+    // segments of lines in spill file, lines of spilled request are appended
+    private long[] spillPositions;
+    private int[] spilledLines;
+    private int spillSegments;
 
     public Request(long requestId) {
         this.requestId = requestId;
     }
 
+    public long getRequestId() {
+        return requestId;
+    }
+
     public Span getSnap(long id) {
+        if (snapMap == null) {
+            return null;
+        }
         return snapMap.get(id);
     }
 
+    // returns number of siblings of the span
+    public int addLine(int serviceId, long started, long ended,
+            long callerSnapId, long snapId) {
+        Span callerSpan = getSnap(callerSnapId);
+        if (callerSpan == null) {
+            addSnap(callerSpan = new Span(callerSnapId));
+            if (callerSnapId != NULL_SPAN) {
+                ++unresolved;
+            }
+        }
+        Span span = getSnap(snapId);
+        if (span == null) {
+            addSnap(span = new Span(snapId));
+        } else if (span.getServiceId() == 0 && snapId != NULL_SPAN) {
+            --unresolved;
+        }
+        rooted |= callerSnapId == NULL_SPAN;
+        span.setServiceId(serviceId);
+        span.setStarted(started);
+        span.setEnded(ended);
+        return callerSpan.addChild(span);
+    }
+
     public int writeAsJson(WritableByteChannel outputCh, ByteBuffer outputBuf,
             Dictionary dictionary) {
-        final Span root = snapMap.get(NULL_SPAN);
-        if (root == null || root.getChildren().isEmpty()) {
+        return write(new JsonTraceWriter(outputCh, outputBuf, dictionary));
+    }
+
+    public int write(TraceWriter writer) {
+        if (!hasRoot()) {
             logger.info("Drop request {} without root span", this);
             return 0;
         }
-        ensureSpace(100, outputCh, outputBuf);
-        outputBuf.put(ID_BYTES)
-            .putLong(requestId)
-            .put(ROOT_BYTES);
-        root.getChildren().get(0).writeAsJson(outputCh, outputBuf, dictionary);
-        outputBuf.put(TERMINATOR_BYTES);
+        writer.beginRequest(requestId);
+        writeRoot(writer);
+        writer.endRequest();
         return 1;
     }
 
+    protected boolean hasRoot() {
+        final Span root = getSnap(NULL_SPAN);
+        return root != null && !root.getChildren().isEmpty();
+    }
+
+    protected void writeRoot(TraceWriter writer) {
+        writer.writeTree(getSnap(NULL_SPAN).getChildren().get(0));
+    }
+
+    // root line is seen and every caller has own line
+    public boolean isComplete() {
+        return rooted && unresolved == 0;
+    }
+
+    public boolean isQueued() {
+        return queued;
+    }
+
+    public void setQueued(boolean queued) {
+        this.queued = queued;
+    }
+
+    public int getSpans() {
+        return snapMap == null ? 0 : snapMap.size();
+    }
+
+    // every logged span as line of its caller; siblings go in reverse,
+    // so addLine puts siblings started at the same time in the same order
+    protected void spillLines(LineSink sink) {
+        if (snapMap == null) {
+            return;
+        }
+        for (Span caller : snapMap.values()) {
+            final List<Span> children = caller.getChildren();
+            for (int i = children.size() - 1; i >= 0; --i) {
+                final Span span = children.get(i);
+                sink.line(caller.getId(), span.getId(), span.getServiceId(),
+                        span.getStarted(), span.getEnded());
+            }
+        }
+    }
+
+    // spans are dropped, counters of completeness stay till reload
+    void spilled(long position, int lines) {
+        if (spillPositions == null) {
+            spillPositions = new long[2];
+            spilledLines = new int[2];
+        }
+        spillPositions[0] = position;
+        spilledLines[0] = lines;
+        spillSegments = 1;
+        release();
+    }
+
+    // line appended to spill file is not counted, so request is complete after reload
+    void spilledLine(long position) {
+        final int last = spillSegments - 1;
+        rooted = false;
+        if (spillPositions[last] + (long) spilledLines[last] * SpillFile.LINE_BYTES
+                == position) {
+            ++spilledLines[last];
+            return;
+        }
+        if (spillSegments == spillPositions.length) {
+            spillPositions = Arrays.copyOf(spillPositions, spillSegments * 2);
+            spilledLines = Arrays.copyOf(spilledLines, spillSegments * 2);
+        }
+        spillPositions[spillSegments] = position;
+        spilledLines[spillSegments++] = 1;
+    }
+
+    // segments stay readable till the request is spilled again
+    void reloaded() {
+        spillSegments = 0;
+        unresolved = 0;
+        rooted = false;
+    }
+
+    public boolean isSpilled() {
+        return spillSegments > 0;
+    }
+
+    int getSpillSegments() {
+        return spillSegments;
+    }
+
+    long getSpillPosition(int segment) {
+        return spillPositions[segment];
+    }
+
+    int getSpilledLines(int segment) {
+        return spilledLines[segment];
+    }
+
+    // span storage is not used after the request is emitted
+    public void release() {
+        snapMap = null;
+    }
+
     public void addSnap(Span span) {
+        if (snapMap == null) {
+            snapMap = HashLongObjMaps.newMutableMap();
+        }
         snapMap.put(span.getId(), span);
     }
 
@@ -54,6 +193,15 @@ public class Request {
         oldestLine = Math.max(last, oldestLine);
     }
 
+    // wall clock time of the last line
+    public long getLastLineAt() {
+        return lastLineAt;
+    }
+
+    public void setLastLineAt(long lastLineAt) {
+        this.lastLineAt = lastLineAt;
+    }
+
     public long getOldestLine() {
         return oldestLine;
     }
@@ -5,63 +5,193 @@ import com.koloboke.collect.map.hash.HashLongObjMaps;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.WritableByteChannel;
-import java.util.Iterator;
+import java.util.ArrayDeque;
 import java.util.Map;
 
 public class RequestRepo {
     private static final Logger logger = LoggerFactory.getLogger(RequestRepo.class);
+    // lines of spilled request are appended till they are scattered that much
+    private static final int MAX_SPILL_SEGMENTS = 16;
 
-    private final Dictionary serviceDictionary;
-    private final WritableByteChannel outputCh;
-    private final ByteBuffer outputBuf;
+    private final TraceWriter traceWriter;
     private final HashLongObjMap<Request> requests = HashLongObjMaps.newMutableMap();
+    private final ExpiryQueue expiryQueue = new ExpiryQueue();
+    private final SpanSlabs spanSlabs;
+    private final IdInterner ids = new IdInterner();
+    private final ArrayDeque<Request> completed = new ArrayDeque<>();
+    private long earlyEmitMs = -1;
+    private long logTime;
+    private long emittedEarly;
     private int maxSiblings;
+    private long wallTime;
+    // emitted requests whose records are not written out yet
+    private long unwritten;
+    private long unwrittenLastLineAtSum;
+    private long unwrittenOldestLastLineAt = Long.MAX_VALUE;
+    private Metrics.Counters counters = Metrics.detached();
+    private SpillFile spillFile;
+    private long maxHeapSpans;
+    private long heapSpans;
+    private long spills;
+    private long reloads;
+    private long compactions;
 
     public RequestRepo(Dictionary serviceDictionary,
                        WritableByteChannel outputCh,
                        ByteBuffer outputBuf) {
-        this.serviceDictionary = serviceDictionary;
-        this.outputCh = outputCh;
-        this.outputBuf = outputBuf;
+        this(serviceDictionary, outputCh, outputBuf, null);
+    }
+
+    // spanSlabs is null for span objects storage
+    public RequestRepo(Dictionary serviceDictionary,
+                       WritableByteChannel outputCh,
+                       ByteBuffer outputBuf,
+                       SpanSlabs spanSlabs) {
+        this(new JsonTraceWriter(outputCh, outputBuf, serviceDictionary), spanSlabs);
+    }
+
+    public RequestRepo(TraceWriter traceWriter, SpanSlabs spanSlabs) {
+        this.traceWriter = traceWriter;
+        this.spanSlabs = spanSlabs;
     }
 
     public void line(int serviceId, long requestId, long started,
             long ended, long callerSnapId, long snapId) {
         Request request = requests.get(requestId);
         if (request == null) {
-            request = new Request(requestId);
-            requests.put(requestId, request);
+            request = newRequest(requestId);
+            request.updateLastTimeStamp(ended);
+            addRequest(request);
+        } else {
+            request.updateLastTimeStamp(ended);
+        }
+        request.setLastLineAt(wallTime);
+        if (request.isSpilled() && request.getSpillSegments() >= MAX_SPILL_SEGMENTS) {
+            reload(request);
+        }
+        if (request.isSpilled()) {
+            spillFile.append(request, callerSnapId, snapId, serviceId, started, ended);
+        } else {
+            heapSpans -= request.getSpans();
+            maxSiblings = Math.max(maxSiblings, request.addLine(
+                    serviceId, started, ended, callerSnapId, snapId));
+            heapSpans += request.getSpans();
+        }
+        if (earlyEmitMs >= 0) {
+            logTime = Math.max(logTime, ended);
+            if (!request.isQueued() && request.isComplete()) {
+                request.setQueued(true);
+                completed.add(request);
+            }
+            emitCompleted();
         }
-        request.updateLastTimeStamp(ended);
-        Span callerSpan = request.getSnap(callerSnapId);
-        if (callerSpan == null) {
-            request.addSnap(callerSpan = new Span(callerSnapId));
+        if (spillFile != null && heapSpans > maxHeapSpans) {
+            spillOldest();
         }
-        Span span = request.getSnap(snapId);
-        if (span == null) {
-            request.addSnap(span = new Span(snapId));
+    }
+
+    // spills requests with oldest last line till 3/4 of budget is used
+    private void spillOldest() {
+        final long target = maxHeapSpans * 3 / 4;
+        expiryQueue.visit(request -> {
+            if (requests.get(request.getRequestId()) == request && request.getSpans() > 0) {
+                heapSpans -= request.getSpans();
+                spillFile.spill(request);
+                ++spills;
+            }
+            return heapSpans > target;
+        });
+    }
+
+    private void reload(Request request) {
+        spillFile.reload(request);
+        heapSpans += request.getSpans();
+        ++reloads;
+        if (spillFile.isWasteful()) {
+            spillFile = spillFile.compact(requests.values());
+            ++compactions;
         }
-        span.setServiceId(serviceId);
-        span.setStarted(started);
-        span.setEnded(ended);
-        maxSiblings = Math.max(maxSiblings, callerSpan.addChild(span));
+    }
+
+    // null spillFile keeps all spans in heap
+    public void setSpillFile(SpillFile spillFile, long maxHeapSpans) {
+        this.spillFile = spillFile;
+        this.maxHeapSpans = maxHeapSpans;
+    }
+
+    // file is replaced on compaction
+    SpillFile getSpillFile() {
+        return spillFile;
+    }
+
+    public long getHeapSpans() {
+        return heapSpans;
+    }
+
+    // complete request is emitted after earlyEmitMs of log time without its lines;
+    // queue keeps order of completion, so a late line of head delays others a bit
+    private void emitCompleted() {
+        while (!completed.isEmpty()) {
+            final Request request = completed.peek();
+            if (request.getOldestLine() + earlyEmitMs > logTime) {
+                break;
+            }
+            completed.poll();
+            request.setQueued(false);
+            if (requests.get(request.getRequestId()) == request && request.isComplete()) {
+                requests.remove(request.getRequestId());
+                emittedEarly += emit(request);
+            }
+        }
+    }
+
+    // -1 disables early emission
+    public void setEarlyEmitMs(long earlyEmitMs) {
+        this.earlyEmitMs = earlyEmitMs;
+    }
+
+    public long getEmittedEarly() {
+        return emittedEarly;
+    }
+
+    private Request newRequest(long requestId) {
+        if (spanSlabs == null) {
+            return new Request(requestId);
+        }
+        return new SlabRequest(requestId, spanSlabs);
     }
 
     public void autoEnd(final long oldestTime, final long autoEndMs) {
+        if (earlyEmitMs >= 0) {
+            // idle log time is moved by wall clock, complete requests should not wait lines
+            logTime = Math.max(logTime, oldestTime);
+            emitCompleted();
+        }
         // close and json all request with oldestTime - last time >= autoEndMs
-        final Iterator<Map.Entry<Long, Request>> iter = requests.entrySet().iterator();
+        final long limitTime = oldestTime - autoEndMs;
+        final int drained = expiryQueue.drain(limitTime);
         int originalSize = requests.size();
         int complete = 0;
-        while (iter.hasNext()) {
-            Map.Entry<Long, Request> entry = iter.next();
-            Request request = entry.getValue();
-            if (oldestTime - request.getOldestLine() >= autoEndMs) {
-                iter.remove();
-                complete += request.writeAsJson(outputCh, outputBuf, serviceDictionary);
+        for (int i = 0; i < drained; ++i) {
+            final Request request = expiryQueue.drained(i);
+            if (requests.get(request.getRequestId()) != request) {
+                continue; // emitted early
+            }
+            if (request.getOldestLine() <= limitTime) {
+                requests.remove(request.getRequestId());
+                complete += emit(request);
+            } else {
+                expiryQueue.add(request);
             }
         }
+        counters.set(Metrics.LIVE_REQUESTS, requests.size());
+        counters.set(Metrics.LIVE_SPANS, heapSpans);
+        if (spillFile != null) {
+            counters.set(Metrics.SPILLED_REQUESTS, spillFile.getSpilled());
+        }
         if (logger.isInfoEnabled()) {
             logger.info("Auto end at {} removed requests {} and {} of them were complete",
                     LogLineParser.timeToString(oldestTime),
@@ -70,8 +200,111 @@ public class RequestRepo {
         }
     }
 
+    protected int emit(Request request) {
+        if (request.isSpilled()) {
+            reload(request);
+        }
+        heapSpans -= request.getSpans();
+        final int result = request.write(traceWriter);
+        ids.release(request.getRequestId());
+        request.release();
+        if (result > 0) {
+            counters.add(Metrics.EMITTED_REQUESTS, 1);
+            ++unwritten;
+            unwrittenLastLineAtSum += request.getLastLineAt();
+            unwrittenOldestLastLineAt = Math.min(unwrittenOldestLastLineAt,
+                    request.getLastLineAt());
+        } else {
+            counters.add(Metrics.DROPPED_REQUESTS, 1);
+        }
+        return result;
+    }
+
+    // records of emitted requests are written out, see LatencyWriteChannel
+    public void written(long now) {
+        if (unwritten > 0) {
+            counters.add(Metrics.EMIT_LATENCY_SUM_MS, unwritten * now - unwrittenLastLineAtSum);
+            counters.max(Metrics.EMIT_LATENCY_MAX_MS, now - unwrittenOldestLastLineAt);
+            unwritten = 0;
+            unwrittenLastLineAtSum = 0;
+            unwrittenOldestLastLineAt = Long.MAX_VALUE;
+        }
+    }
+
+    public void setCounters(Metrics.Counters counters) {
+        this.counters = counters;
+    }
+
+    // wall clock time of lines being parsed, it is set once per batch of lines
+    public void setWallTime(long wallTime) {
+        this.wallTime = wallTime;
+    }
+
+    public long getEmitted() {
+        return counters.get(Metrics.EMITTED_REQUESTS);
+    }
+
+    public long getEmitLatencyMaxMs() {
+        return counters.get(Metrics.EMIT_LATENCY_MAX_MS);
+    }
+
     public void logStats() {
         logger.info("Max span siblings {}", maxSiblings);
+        if (earlyEmitMs >= 0) {
+            logger.info("Emitted {} complete traces before expiry", emittedEarly);
+        }
+        final long emitted = getEmitted();
+        if (emitted > 0) {
+            logger.info("Emitted {} traces, latency from last line avg {} ms max {} ms",
+                    emitted, counters.get(Metrics.EMIT_LATENCY_SUM_MS) / emitted,
+                    getEmitLatencyMaxMs());
+        }
+        if (spillFile != null) {
+            logger.info("Spilled requests {} times, reloaded {} times, compacted file {} times",
+                    spills, reloads, compactions);
+        }
+        if (spanSlabs != null) {
+            logger.info("Span slabs allocated {}", spanSlabs.getAllocatedSlabs());
+        }
+        if (ids.getCollisions() > 0) {
+            logger.info("Interned ids had {} hash collisions", ids.getCollisions());
+        }
+    }
+
+    // lines of live requests, spilled ones are read from spill file
+    void writeLines(Checkpoint checkpoint) {
+        for (Request request : requests.values()) {
+            checkpoint.beginRequest(request.getRequestId());
+            if (request.isSpilled()) {
+                spillFile.copyLines(request, checkpoint);
+            } else {
+                request.spillLines(checkpoint);
+            }
+        }
+    }
+
+    // interned request ids, they are empty unless internRequestIds is called
+    public IdInterner getIds() {
+        return ids;
+    }
+
+    // request ids of text layout are written from interned bytes
+    public IdInterner internRequestIds() {
+        if (traceWriter != null) {
+            traceWriter.setIds(ids);
+        }
+        return ids;
+    }
+
+    public void close() throws IOException {
+        if (spillFile != null) {
+            spillFile.close();
+        }
+    }
+
+    void addRequest(Request request) {
+        requests.put(request.getRequestId(), request);
+        expiryQueue.add(request);
     }
 
     Map<Long, Request> getRequests() {
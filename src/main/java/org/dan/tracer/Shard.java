@@ -0,0 +1,151 @@
+package org.dan.tracer;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+public class Shard {
+    private static final int SHARE_LINES = 256;
+
+    private final CommandLineOptions options;
+    private final ShardOutputChannel outputCh;
+    private final RequestRepo requestRepo;
+    private final LogLineParser logLineParser;
+    private final AtomicLong logTime;
+    private final AtomicLong parsedLines;
+    private int unsharedLines;
+    private long autoEndAt;
+    private long oldestTime;
+    private long now;
+    private long lastParsedAt;
+    private long deadline;
+
+    // logTime is the newest line time seen by all shards,
+    // parsedLines is the number of lines parsed by all shards
+    public Shard(CommandLineOptions options, int index,
+            WritableByteChannel sharedOutputCh, Lock outputLock,
+            AtomicLong logTime, AtomicLong parsedLines) {
+        this.options = options;
+        this.logTime = logTime;
+        this.parsedLines = parsedLines;
+        this.autoEndAt = options.getFlushLineCheck();
+        final Dictionary serviceDictionary = Dictionary.create();
+        final ByteBuffer outputBuf = ByteBuffer
+                .allocateDirect(options.getWriteBufferBytes())
+                .order(LITTLE_ENDIAN);
+        final LatencyWriteChannel latencyCh = new LatencyWriteChannel(sharedOutputCh);
+        outputCh = new ShardOutputChannel(latencyCh, outputLock, outputBuf);
+        requestRepo = new RequestRepo(options.newTraceWriter(
+                outputCh, outputBuf, serviceDictionary, index),
+                options.newSpanSlabs()) {
+            @Override
+            protected int emit(Request request) {
+                final int result = super.emit(request);
+                try {
+                    outputCh.commit();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                return result;
+            }
+        };
+        latencyCh.setRequestRepo(requestRepo);
+        requestRepo.setEarlyEmitMs(options.getEarlyEmitMs());
+        // every shard keeps its part of the budget
+        requestRepo.setSpillFile(options.newSpillFile(),
+                Math.max(1, options.getMaxHeapSpans() / options.getThreads()));
+        requestRepo.setCounters(options.getMetrics().parser(index));
+        logLineParser = options.newLogLineParser(serviceDictionary, requestRepo);
+        logLineParser.setCounters(options.getMetrics().parser(index));
+    }
+
+    // whole lines only
+    public void parse(ByteBuffer lines) {
+        tick();
+        lastParsedAt = now;
+        while (lines.hasRemaining()) {
+            try {
+                oldestTime = Math.max(oldestTime, logLineParser.parse(lines));
+            } catch (BufferUnderflowException e) {
+                break; // malformed tail line
+            }
+            ++unsharedLines;
+        }
+        logLineParser.setSearchNewLine(false);
+        shareLines();
+        checkExpired();
+    }
+
+    // limit of line is set right after its line end
+    public void parseLine(ByteBuffer line) {
+        lastParsedAt = now;
+        try {
+            oldestTime = Math.max(oldestTime, logLineParser.parse(line));
+        } catch (BufferUnderflowException e) {
+            // malformed line
+        }
+        logLineParser.setSearchNewLine(false);
+        if (++unsharedLines >= SHARE_LINES) {
+            shareLines();
+        }
+        checkExpired();
+    }
+
+    // every shard checks expired requests once per -flush-check lines
+    // of whole input as single thread does, not per lines of its own
+    private void shareLines() {
+        final long lines = parsedLines.addAndGet(unsharedLines);
+        unsharedLines = 0;
+        if (lines >= autoEndAt) {
+            requestRepo.autoEnd(shareLogTime(), options.getExpireRequestAfterMs());
+            autoEndAt = lines - lines % options.getFlushLineCheck()
+                    + options.getFlushLineCheck();
+        }
+    }
+
+    private void checkExpired() {
+        if (options.getMaxLatencyMs() > 0 && now >= deadline) {
+            idle();
+        }
+    }
+
+    // a shard with few lines is not left behind by log time of others
+    private long shareLogTime() {
+        return logTime.accumulateAndGet(oldestTime, Math::max);
+    }
+
+    // wall clock for lines parsed next
+    public void tick() {
+        now = System.currentTimeMillis();
+        requestRepo.setWallTime(now);
+    }
+
+    // while shard gets no lines its log time is moved by wall clock
+    public void idle() {
+        requestRepo.autoEnd(shareLogTime() + now - lastParsedAt,
+                options.getExpireRequestAfterMs());
+        try {
+            outputCh.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        deadline = now + options.getMaxLatencyMs();
+    }
+
+    // output lock is not left held by failed shard
+    public void abort() {
+        outputCh.abort();
+    }
+
+    public void finish() throws IOException {
+        requestRepo.autoEnd(oldestTime, 0);
+        requestRepo.logStats();
+        requestRepo.close();
+        outputCh.flush();
+    }
+}
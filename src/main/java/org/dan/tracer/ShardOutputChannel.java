@@ -0,0 +1,99 @@
+package org.dan.tracer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.locks.Lock;
+
+public class ShardOutputChannel implements WritableByteChannel {
+    private final WritableByteChannel outputCh;
+    private final Lock lock;
+    private final ByteBuffer outputBuf;
+    private int committed;
+    private boolean holding;
+
+    public ShardOutputChannel(WritableByteChannel outputCh, Lock lock,
+            ByteBuffer outputBuf) {
+        this.outputCh = outputCh;
+        this.lock = lock;
+        this.outputBuf = outputBuf;
+    }
+
+    // outputBuf is flipped by JsonTraceWriter.ensureSpace
+    public int write(ByteBuffer src) throws IOException {
+        if (holding || committed < src.limit() / 2) {
+            // record in progress is too big to wait for,
+            // so keep other shards out till it is committed
+            if (!holding) {
+                lock.lock();
+                holding = true;
+            }
+            committed = 0;
+            return writeFully(src);
+        }
+        final int limit = src.limit();
+        src.limit(committed);
+        lock.lock();
+        try {
+            return writeFully(src);
+        } finally {
+            lock.unlock();
+            src.limit(limit);
+            committed = 0;
+        }
+    }
+
+    public void commit() throws IOException {
+        if (holding) {
+            try {
+                outputBuf.flip();
+                writeFully(outputBuf);
+                outputBuf.clear();
+            } finally {
+                holding = false;
+                lock.unlock();
+            }
+        }
+        committed = outputBuf.position();
+    }
+
+    // shard failed in the middle of a big record, other shards go on;
+    // called by the shard thread which holds the lock
+    public void abort() {
+        if (holding) {
+            holding = false;
+            outputBuf.clear();
+            committed = 0;
+            lock.unlock();
+        }
+    }
+
+    public void flush() throws IOException {
+        commit();
+        outputBuf.flip();
+        lock.lock();
+        try {
+            writeFully(outputBuf);
+        } finally {
+            lock.unlock();
+        }
+        outputBuf.clear();
+        committed = 0;
+    }
+
+    private int writeFully(ByteBuffer src) throws IOException {
+        int written = 0;
+        while (src.hasRemaining()) {
+            written += outputCh.write(src);
+        }
+        return written;
+    }
+
+    public boolean isOpen() {
+        return outputCh.isOpen();
+    }
+
+    public void close() throws IOException {
+        flush();
+    }
+}
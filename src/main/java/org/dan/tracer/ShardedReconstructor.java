@@ -0,0 +1,222 @@
+package org.dan.tracer;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class ShardedReconstructor {
+    private static final Logger logger = LoggerFactory.getLogger(ShardedReconstructor.class);
+    private static final int BATCH_BYTES = 256 * 1024;
+    private static final int BATCHES_PER_SHARD = 4;
+    private static final ByteBuffer END_OF_INPUT = ByteBuffer.allocate(0);
+
+    private final CommandLineOptions options;
+    private final ReadableByteChannel inputCh;
+    private final WritableByteChannel outputCh;
+    private final Lock outputLock = new ReentrantLock();
+    private final AtomicLong logTime = new AtomicLong();
+    private final AtomicLong parsedLines = new AtomicLong();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final List<BlockingQueue<ByteBuffer>> filled;
+    private final List<BlockingQueue<ByteBuffer>> free;
+    private final ByteBuffer[] batches;
+    private final Thread[] workers;
+    private final int requestIdOffset;
+    private final Metrics.Counters input;
+
+    public ShardedReconstructor(CommandLineOptions options,
+            ReadableByteChannel inputCh, WritableByteChannel outputCh) {
+        this.options = options;
+        this.inputCh = inputCh;
+        this.outputCh = outputCh;
+        this.requestIdOffset = options.getRequestIdOffset();
+        this.input = options.getMetrics().input();
+        final int shards = options.getThreads();
+        filled = new ArrayList<>(shards);
+        free = new ArrayList<>(shards);
+        batches = new ByteBuffer[shards];
+        workers = new Thread[shards];
+        for (int i = 0; i < shards; ++i) {
+            filled.add(new ArrayBlockingQueue<>(BATCHES_PER_SHARD + 1));
+            free.add(new ArrayBlockingQueue<>(BATCHES_PER_SHARD));
+            for (int j = 0; j < BATCHES_PER_SHARD; ++j) {
+                free.get(i).add(ByteBuffer.allocateDirect(BATCH_BYTES).order(LITTLE_ENDIAN));
+            }
+        }
+    }
+
+    public static int shardOf(long requestId, int shards) {
+        final int hash = (int) ((requestId * 0x9E3779B97F4A7C15L) >>> 32);
+        return (hash & Integer.MAX_VALUE) % shards;
+    }
+
+    public void reconstructTraces() throws IOException, InterruptedException {
+        final ByteBuffer inputBuf = ByteBuffer
+                .allocateDirect(options.getReadBufferBytes())
+                .order(LITTLE_ENDIAN);
+        try {
+            for (int i = 0; i < workers.length; ++i) {
+                workers[i] = startWorker(i);
+                batches[i] = free.get(i).take();
+            }
+            boolean skipLine = false;
+            long deadline = System.currentTimeMillis() + options.getMaxLatencyMs();
+            while (true) {
+                final int read = inputCh.read(inputBuf);
+                input.add(Metrics.BYTES_IN, Math.max(0, read));
+                inputBuf.flip();
+                if (skipLine) {
+                    skipLine = skipToLineEnd(inputBuf);
+                }
+                route(inputBuf);
+                if (read < 0) {
+                    break;
+                }
+                if (options.getMaxLatencyMs() > 0) {
+                    final long now = System.currentTimeMillis();
+                    if (now >= deadline) {
+                        sendPartial();
+                        deadline = now + options.getMaxLatencyMs();
+                    }
+                }
+                if (inputBuf.position() == 0 && inputBuf.limit() == inputBuf.capacity()) {
+                    logger.error("Skip line longer than read buffer");
+                    input.add(Metrics.MALFORMED_LINES, 1);
+                    inputBuf.position(inputBuf.limit());
+                    skipLine = true;
+                }
+                inputBuf.compact();
+            }
+            for (int i = 0; i < workers.length; ++i) {
+                send(i);
+                filled.get(i).put(END_OF_INPUT);
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } finally {
+            // workers wait for batches forever if reading failed
+            for (Thread worker : workers) {
+                if (worker != null && worker.isAlive()) {
+                    worker.interrupt();
+                    worker.join();
+                }
+            }
+            outputCh.close();
+        }
+        final Throwable e = failure.get();
+        if (e != null) {
+            throw new RuntimeException("Shard failed", e);
+        }
+    }
+
+    private static boolean skipToLineEnd(ByteBuffer inputBuf) {
+        while (inputBuf.hasRemaining()) {
+            if (inputBuf.get() == '\n') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void route(ByteBuffer inputBuf) throws InterruptedException {
+        final int limit = inputBuf.limit();
+        for (int i = Swar.indexOf(inputBuf, inputBuf.position(), limit, Swar.LINE_ENDS);
+                i >= 0; i = Swar.indexOf(inputBuf, i + 1, limit, Swar.LINE_ENDS)) {
+            final int lineStart = inputBuf.position();
+            final int lineEnd = i + 1;
+            if (lineEnd - lineStart > requestIdOffset + 8
+                    && lineEnd - lineStart <= BATCH_BYTES) {
+                final int shard = shardOf(
+                        inputBuf.getLong(lineStart + requestIdOffset),
+                        workers.length);
+                if (batches[shard].remaining() < lineEnd - lineStart) {
+                    send(shard);
+                }
+                inputBuf.limit(lineEnd);
+                batches[shard].put(inputBuf);
+                inputBuf.limit(limit);
+            } else {
+                // no request id to route by or longer than batch
+                input.add(Metrics.MALFORMED_LINES, 1);
+            }
+            inputBuf.position(lineEnd);
+        }
+    }
+
+    // lines of slow input are not held till batch is full
+    private void sendPartial() throws InterruptedException {
+        for (int i = 0; i < batches.length; ++i) {
+            if (batches[i].position() > 0) {
+                send(i);
+            }
+        }
+    }
+
+    private void send(int shard) throws InterruptedException {
+        final ByteBuffer batch = batches[shard];
+        batch.flip();
+        filled.get(shard).put(batch);
+        batches[shard] = free.get(shard).take();
+    }
+
+    private Thread startWorker(int i) {
+        final Shard shard = new Shard(options, i, outputCh, outputLock,
+                logTime, parsedLines);
+        final Thread worker = new Thread(() -> {
+            try {
+                while (true) {
+                    final ByteBuffer batch = options.getMaxLatencyMs() > 0
+                            ? filled.get(i).poll(options.getMaxLatencyMs(), MILLISECONDS)
+                            : filled.get(i).take();
+                    if (batch == END_OF_INPUT) {
+                        break;
+                    }
+                    // failed shard keeps recycling batches, so reader is not blocked
+                    if (failure.get() == null) {
+                        try {
+                            if (batch == null) {
+                                shard.tick();
+                                shard.idle();
+                            } else {
+                                shard.parse(batch);
+                            }
+                        } catch (RuntimeException | Error e) {
+                            logger.error("Shard {} failed", i, e);
+                            failure.compareAndSet(null, e);
+                            shard.abort();
+                        }
+                    }
+                    if (batch != null) {
+                        batch.clear();
+                        free.get(i).put(batch);
+                    }
+                }
+                if (failure.get() == null) {
+                    shard.finish();
+                }
+            } catch (InterruptedException | IOException | RuntimeException | Error e) {
+                logger.error("Shard {} failed", i, e);
+                failure.compareAndSet(null, e);
+                shard.abort();
+            }
+        }, "shard-" + i);
+        worker.start();
+        return worker;
+    }
+}
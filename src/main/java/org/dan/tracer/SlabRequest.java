@@ -0,0 +1,147 @@
+package org.dan.tracer;
+
+import static org.dan.tracer.LogLineParser.NULL_SPAN;
+import static org.dan.tracer.SpanSlabs.NONE;
+import static org.dan.tracer.SpanSlabs.SLAB_SPANS;
+
+import com.koloboke.collect.map.hash.HashLongIntMap;
+import com.koloboke.collect.map.hash.HashLongIntMaps;
+
+import java.util.Arrays;
+
+public class SlabRequest extends Request {
+    private final SpanSlabs slabs;
+    private int firstSlab = NONE;
+    private int lastSlab = NONE;
+    private int spans;
+    // slot by span id, built once spans do not fit a slab
+    private HashLongIntMap slots;
+
+    public SlabRequest(long requestId, SpanSlabs slabs) {
+        super(requestId);
+        this.slabs = slabs;
+    }
+
+    @Override
+    public int addLine(int serviceId, long started, long ended,
+            long callerSnapId, long snapId) {
+        final int known = spans;
+        final int caller = findOrAdd(callerSnapId);
+        if (spans > known && callerSnapId != NULL_SPAN) {
+            ++unresolved;
+        }
+        final int knownWithCaller = spans;
+        final int span = findOrAdd(snapId);
+        if (spans == knownWithCaller && slabs.getServiceId(span) == 0
+                && snapId != NULL_SPAN) {
+            --unresolved;
+        }
+        rooted |= callerSnapId == NULL_SPAN;
+        slabs.set(span, serviceId, started, ended);
+        // span stays under its callers as Span object does
+        return slabs.addChild(caller, slabs.isLinked(span)
+                ? slabs.initAlias(allocateSlot(), span)
+                : span);
+    }
+
+    private int find(long id) {
+        return slots == null
+                ? slabs.find(firstSlab, spans, id)
+                : slots.getOrDefault(id, NONE);
+    }
+
+    private int findOrAdd(long id) {
+        final int slot = find(id);
+        if (slot != NONE) {
+            return slot;
+        }
+        final int added = slabs.initSpan(allocateSlot(), id);
+        if (slots != null) {
+            slots.put(id, added);
+        }
+        return added;
+    }
+
+    private int allocateSlot() {
+        final int inSlab = spans % SLAB_SPANS;
+        if (inSlab == 0) {
+            if (slots == null && spans > 0) {
+                indexSlots();
+            }
+            final int slab = slabs.allocateSlab();
+            if (firstSlab == NONE) {
+                firstSlab = slab;
+            } else {
+                slabs.linkSlab(lastSlab, slab);
+            }
+            lastSlab = slab;
+        }
+        ++spans;
+        return lastSlab * SLAB_SPANS + inSlab;
+    }
+
+    private void indexSlots() {
+        slots = HashLongIntMaps.newMutableMap(spans * 2);
+        final int from = firstSlab * SLAB_SPANS;
+        for (int slot = from; slot < from + spans; ++slot) {
+            if (slabs.getTarget(slot) == slot) {
+                slots.put(slabs.getId(slot), slot);
+            }
+        }
+    }
+
+    @Override
+    public int getSpans() {
+        return spans;
+    }
+
+    @Override
+    protected void spillLines(LineSink sink) {
+        int[] children = new int[SLAB_SPANS];
+        int left = spans;
+        for (int slab = firstSlab; slab != NONE; slab = slabs.nextSlab(slab)) {
+            final int from = slab * SLAB_SPANS;
+            final int to = from + Math.min(left, SLAB_SPANS);
+            for (int caller = from; caller < to; ++caller) {
+                int n = 0;
+                for (int child = slabs.getFirstChild(caller); child != NONE;
+                        child = slabs.getNextSibling(child)) {
+                    if (n == children.length) {
+                        children = Arrays.copyOf(children, n * 2);
+                    }
+                    children[n++] = child;
+                }
+                // same order of siblings started at the same time after reload
+                while (n > 0) {
+                    final int span = slabs.getTarget(children[--n]);
+                    sink.line(slabs.getId(caller), slabs.getId(span),
+                            slabs.getServiceId(span), slabs.getStarted(span),
+                            slabs.getEnded(span));
+                }
+            }
+            left -= SLAB_SPANS;
+        }
+    }
+
+    @Override
+    protected boolean hasRoot() {
+        final int root = find(NULL_SPAN);
+        return root != NONE && slabs.getFirstChild(root) != NONE;
+    }
+
+    @Override
+    protected void writeRoot(TraceWriter writer) {
+        writer.writeTree(slabs,
+                slabs.getFirstChild(find(NULL_SPAN)));
+    }
+
+    @Override
+    public void release() {
+        if (firstSlab != NONE) {
+            slabs.releaseSlabs(firstSlab, lastSlab);
+            firstSlab = lastSlab = NONE;
+            spans = 0;
+            slots = null;
+        }
+    }
+}
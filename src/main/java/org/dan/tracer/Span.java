@@ -1,24 +1,16 @@
 package org.dan.tracer;
 
-import static org.dan.tracer.LogLineParser.writeDateTime;
-
-import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.List;
 
 public class Span implements Comparable<Span> {
-    private static final byte[] START_BYTES = "{\"start\":\"".getBytes();
-    private static final byte[] END_BYTES = "\",\"end\":\"".getBytes();
-    private static final byte[] SERVICE_BYTES = "\",\"service\":\"".getBytes();
-    private static final byte[] CALLS_BYTES = "\",\"calls\":[".getBytes();
-
     private final List<Span> children = new ArrayList<>();
     private final long id;
     private int serviceId;
     private long started;
     private long ended;
+    // span is on path being written, so a cycle of callers is cut
+    private boolean writing;
 
     public Span(long id) {
         this.id = id;
@@ -55,43 +47,6 @@ public class Span implements Comparable<Span> {
         return size + 1;
     }
 
-    public static void ensureSpace(final int minFreeSpace,
-            final WritableByteChannel outputCh,
-            final ByteBuffer outputBuf) {
-        if (outputBuf.remaining() < minFreeSpace) {
-            outputBuf.flip();
-            try {
-                outputCh.write(outputBuf);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-            outputBuf.compact();
-        }
-    }
-
-    public void writeAsJson(WritableByteChannel outputCh, ByteBuffer outputBuf,
-                            Dictionary serviceDictionary) {
-        ensureSpace(100, outputCh, outputBuf);
-        outputBuf.put(START_BYTES);
-        writeDateTime(outputBuf, started);
-        outputBuf.put(END_BYTES);
-        writeDateTime(outputBuf, ended);
-        outputBuf.put(SERVICE_BYTES);
-        outputBuf.put(serviceDictionary.getById(serviceId).array());
-        if (children.isEmpty()) {
-            outputBuf.put((byte) '"');
-        } else {
-            outputBuf.put(CALLS_BYTES);
-            children.get(0).writeAsJson(outputCh, outputBuf, serviceDictionary);
-            for (int i = 1; i < children.size(); ++i) {
-                outputBuf.put((byte) ',');
-                children.get(i).writeAsJson(outputCh, outputBuf, serviceDictionary);
-            }
-            outputBuf.put((byte) ']');
-        }
-        outputBuf.put((byte) '}');
-    }
-
     public int getServiceId() {
         return serviceId;
     }
@@ -116,6 +71,14 @@ public class Span implements Comparable<Span> {
         this.ended = ended;
     }
 
+    public boolean isWriting() {
+        return writing;
+    }
+
+    public void setWriting(boolean writing) {
+        this.writing = writing;
+    }
+
     public List<Span> getChildren() {
         return children;
     }
@@ -0,0 +1,199 @@
+package org.dan.tracer;
+
+import java.util.Arrays;
+
+// spans of all requests in columns of primitive arrays;
+// a request owns a chain of fixed size slabs which are reused after it is emitted.
+// a span logged under one more caller gets an alias slot in its siblings,
+// alias shares times, service and children of its target span
+public class SpanSlabs {
+    static final int SLAB_SPANS = 16;
+    static final int NONE = -1;
+
+    private long[] ids;
+    private long[] started;
+    private long[] ended;
+    private int[] serviceIds;
+    private int[] targets;
+    private int[] parents;
+    private int[] firstChildren;
+    private int[] lastChildren;
+    private int[] childCounts;
+    private int[] nextSiblings;
+    private int[] nextSlabs;
+    private int freeSlab = NONE;
+    private int allocatedSlabs;
+
+    public SpanSlabs() {
+        this(1024);
+    }
+
+    SpanSlabs(int slabs) {
+        nextSlabs = new int[slabs];
+        ids = new long[slabs * SLAB_SPANS];
+        started = new long[ids.length];
+        ended = new long[ids.length];
+        serviceIds = new int[ids.length];
+        targets = new int[ids.length];
+        parents = new int[ids.length];
+        firstChildren = new int[ids.length];
+        lastChildren = new int[ids.length];
+        childCounts = new int[ids.length];
+        nextSiblings = new int[ids.length];
+    }
+
+    public int allocateSlab() {
+        final int slab;
+        if (freeSlab == NONE) {
+            if (allocatedSlabs == nextSlabs.length) {
+                grow();
+            }
+            slab = allocatedSlabs++;
+        } else {
+            slab = freeSlab;
+            freeSlab = nextSlabs[slab];
+        }
+        nextSlabs[slab] = NONE;
+        return slab;
+    }
+
+    private void grow() {
+        nextSlabs = Arrays.copyOf(nextSlabs, nextSlabs.length * 2);
+        final int spans = nextSlabs.length * SLAB_SPANS;
+        ids = Arrays.copyOf(ids, spans);
+        started = Arrays.copyOf(started, spans);
+        ended = Arrays.copyOf(ended, spans);
+        serviceIds = Arrays.copyOf(serviceIds, spans);
+        targets = Arrays.copyOf(targets, spans);
+        parents = Arrays.copyOf(parents, spans);
+        firstChildren = Arrays.copyOf(firstChildren, spans);
+        lastChildren = Arrays.copyOf(lastChildren, spans);
+        childCounts = Arrays.copyOf(childCounts, spans);
+        nextSiblings = Arrays.copyOf(nextSiblings, spans);
+    }
+
+    public void linkSlab(int slab, int nextSlab) {
+        nextSlabs[slab] = nextSlab;
+    }
+
+    public int nextSlab(int slab) {
+        return nextSlabs[slab];
+    }
+
+    public void releaseSlabs(int firstSlab, int lastSlab) {
+        nextSlabs[lastSlab] = freeSlab;
+        freeSlab = firstSlab;
+    }
+
+    public int getAllocatedSlabs() {
+        return allocatedSlabs;
+    }
+
+    public int initSpan(int slot, long id) {
+        ids[slot] = id;
+        started[slot] = 0;
+        ended[slot] = 0;
+        serviceIds[slot] = 0;
+        targets[slot] = slot;
+        parents[slot] = NONE;
+        firstChildren[slot] = NONE;
+        lastChildren[slot] = NONE;
+        childCounts[slot] = 0;
+        nextSiblings[slot] = NONE;
+        return slot;
+    }
+
+    // slot of span id linked to one more caller
+    public int initAlias(int slot, int target) {
+        initSpan(slot, ids[target]);
+        targets[slot] = target;
+        return slot;
+    }
+
+    public int find(int firstSlab, int spans, long id) {
+        for (int slab = firstSlab; slab != NONE; slab = nextSlabs[slab]) {
+            final int from = slab * SLAB_SPANS;
+            final int to = from + Math.min(spans, SLAB_SPANS);
+            for (int slot = from; slot < to; ++slot) {
+                if (ids[slot] == id) {
+                    return slot;
+                }
+            }
+            spans -= SLAB_SPANS;
+        }
+        return NONE;
+    }
+
+    public void set(int slot, int serviceId, long started, long ended) {
+        this.serviceIds[slot] = serviceId;
+        this.started[slot] = started;
+        this.ended[slot] = ended;
+    }
+
+    // children are kept sorted by start; returns number of siblings;
+    // child is not linked yet, a linked span is added via alias
+    public int addChild(int parent, int child) {
+        parents[child] = parent;
+        final long childStarted = started[targets[child]];
+        final int last = lastChildren[parent];
+        if (last == NONE || started[targets[last]] < childStarted) {
+            // lines mostly come in order of start
+            nextSiblings[child] = NONE;
+            if (last == NONE) {
+                firstChildren[parent] = child;
+            } else {
+                nextSiblings[last] = child;
+            }
+            lastChildren[parent] = child;
+            return ++childCounts[parent];
+        }
+        // after the last sibling started before, as Span does;
+        // a repeated line can change start of a linked span
+        int prev = NONE;
+        for (int next = firstChildren[parent]; next != NONE; next = nextSiblings[next]) {
+            if (started[targets[next]] < childStarted) {
+                prev = next;
+            }
+        }
+        if (prev == NONE) {
+            nextSiblings[child] = firstChildren[parent];
+            firstChildren[parent] = child;
+        } else {
+            nextSiblings[child] = nextSiblings[prev];
+            nextSiblings[prev] = child;
+        }
+        return ++childCounts[parent];
+    }
+
+    public long getId(int slot) {
+        return ids[slot];
+    }
+
+    public int getTarget(int slot) {
+        return targets[slot];
+    }
+
+    public boolean isLinked(int slot) {
+        return parents[slot] != NONE;
+    }
+
+    public int getFirstChild(int slot) {
+        return firstChildren[slot];
+    }
+
+    public int getNextSibling(int slot) {
+        return nextSiblings[slot];
+    }
+
+    public int getServiceId(int slot) {
+        return serviceIds[slot];
+    }
+
+    public long getStarted(int slot) {
+        return started[slot];
+    }
+
+    public long getEnded(int slot) {
+        return ended[slot];
+    }
+}
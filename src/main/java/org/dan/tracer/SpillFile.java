@@ -0,0 +1,165 @@
+package org.dan.tracer;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.nio.file.StandardOpenOption.DELETE_ON_CLOSE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+
+// append-only file of log lines of requests moved out of heap;
+// spilled request keeps segments of its lines, new lines of it are appended
+// as next segments, and it is rebuilt from them; file is truncated once
+// no request is spilled and compacted once most of its lines are reloaded
+public class SpillFile implements LineSink, Closeable {
+    // caller, span, service, started, ended
+    static final int LINE_BYTES = 8 + 8 + 4 + 8 + 8;
+
+    private final Path dir;
+    private final FileChannel fileCh;
+    private final ByteBuffer buf;
+    private long size;
+    private int spilled;
+    private int lines;
+    private long liveLines;
+
+    public SpillFile(Path dir, int bufferBytes) throws IOException {
+        this.dir = dir;
+        final Path path = Files.createTempFile(dir, "tracer", ".spill");
+        fileCh = FileChannel.open(path, READ, WRITE, DELETE_ON_CLOSE);
+        buf = ByteBuffer.allocateDirect(Math.max(LINE_BYTES, bufferBytes))
+                .order(LITTLE_ENDIAN);
+    }
+
+    public void spill(Request request) {
+        final long position = size + buf.position();
+        lines = 0;
+        request.spillLines(this);
+        request.spilled(position, lines);
+        liveLines += lines;
+        ++spilled;
+    }
+
+    // line of spilled request, it stays out of heap
+    public void append(Request request, long callerSnapId, long snapId,
+            int serviceId, long started, long ended) {
+        if (buf.remaining() < LINE_BYTES) {
+            writeBuffer();
+        }
+        request.spilledLine(size + buf.position());
+        line(callerSnapId, snapId, serviceId, started, ended);
+        ++liveLines;
+    }
+
+    public void line(long callerSnapId, long snapId, int serviceId, long started, long ended) {
+        if (buf.remaining() < LINE_BYTES) {
+            writeBuffer();
+        }
+        buf.putLong(callerSnapId).putLong(snapId).putInt(serviceId)
+                .putLong(started).putLong(ended);
+        ++lines;
+    }
+
+    public void reload(Request request) {
+        final int segments = request.getSpillSegments();
+        request.reloaded();
+        final LineSink sink = (callerSnapId, snapId, serviceId, started, ended) ->
+                request.addLine(serviceId, started, ended, callerSnapId, snapId);
+        for (int i = 0; i < segments; ++i) {
+            readLines(request.getSpillPosition(i), request.getSpilledLines(i), sink);
+            liveLines -= request.getSpilledLines(i);
+        }
+        if (--spilled == 0) {
+            try {
+                fileCh.truncate(0);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            size = 0;
+        }
+    }
+
+    // lines of spilled request stay in file
+    public void copyLines(Request request, LineSink sink) {
+        for (int i = 0; i < request.getSpillSegments(); ++i) {
+            readLines(request.getSpillPosition(i), request.getSpilledLines(i), sink);
+        }
+    }
+
+    // lines of reloaded requests outnumber lines of spilled ones
+    public boolean isWasteful() {
+        final long deadLines = (size + buf.position()) / LINE_BYTES - liveLines;
+        return deadLines > liveLines && deadLines * LINE_BYTES > buf.capacity();
+    }
+
+    // spilled requests are moved to a new file, this one is closed
+    public SpillFile compact(Collection<Request> requests) {
+        try {
+            final SpillFile compacted = new SpillFile(dir, buf.capacity());
+            for (Request request : requests) {
+                if (request.isSpilled()) {
+                    final long position = compacted.size + compacted.buf.position();
+                    compacted.lines = 0;
+                    copyLines(request, compacted);
+                    request.spilled(position, compacted.lines);
+                    compacted.liveLines += compacted.lines;
+                    ++compacted.spilled;
+                }
+            }
+            close();
+            return compacted;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void readLines(long position, int left, LineSink sink) {
+        writeBuffer();
+        try {
+            while (left > 0) {
+                buf.limit(Math.min(left, buf.capacity() / LINE_BYTES) * LINE_BYTES);
+                while (buf.hasRemaining()) {
+                    if (fileCh.read(buf, position + buf.position()) < 0) {
+                        throw new IOException("Spill file is shorter than " + position);
+                    }
+                }
+                buf.flip();
+                position += buf.limit();
+                left -= buf.limit() / LINE_BYTES;
+                while (buf.hasRemaining()) {
+                    sink.line(buf.getLong(), buf.getLong(), buf.getInt(),
+                            buf.getLong(), buf.getLong());
+                }
+                buf.clear();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void writeBuffer() {
+        buf.flip();
+        try {
+            while (buf.hasRemaining()) {
+                size += fileCh.write(buf, size);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        buf.clear();
+    }
+
+    public int getSpilled() {
+        return spilled;
+    }
+
+    public void close() throws IOException {
+        fileCh.close();
+    }
+}
@@ -0,0 +1,90 @@
+package org.dan.tracer;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+
+import java.nio.ByteBuffer;
+
+// byte search and digit checks on 8 bytes per step,
+// a match sets high bit of its byte
+public class Swar {
+    static final long SPACES = pattern(' ');
+    static final long LINE_ENDS = pattern('\n');
+    private static final long LOWS = 0x7f7f7f7f7f7f7f7fL;
+    private static final long LOW_NIBBLES = 0x0f0f0f0f0f0f0f0fL;
+    private static final long HIGH_NIBBLES = 0xf0f0f0f0f0f0f0f0L;
+    private static final long ZEROS = pattern('0');
+    private static final long SIXES = pattern((char) 6);
+
+    static long pattern(char b) {
+        return 0x0101010101010101L * b;
+    }
+
+    // exact for every byte, no false matches after a matched one
+    static long match(long word, long pattern) {
+        final long x = word ^ pattern;
+        return ~(((x & LOWS) + LOWS) | x | LOWS);
+    }
+
+    // index of first byte of any pattern in [from, to), -1 if there is none
+    static int indexOf(ByteBuffer buf, int from, int to, long pattern, long otherPattern) {
+        int i = from;
+        for (; i + 8 <= to; i += 8) {
+            final long word = buf.getLong(i);
+            final long found = match(word, pattern) | match(word, otherPattern);
+            if (found != 0) {
+                return i + (buf.order() == LITTLE_ENDIAN
+                        ? Long.numberOfTrailingZeros(found)
+                        : Long.numberOfLeadingZeros(found)) / 8;
+            }
+        }
+        final byte b = (byte) pattern;
+        final byte other = (byte) otherPattern;
+        for (; i < to; ++i) {
+            final byte c = buf.get(i);
+            if (c == b || c == other) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static int indexOf(ByteBuffer buf, int from, int to, long pattern) {
+        return indexOf(buf, from, to, pattern, pattern);
+    }
+
+    // 0xff for every d of layout, little endian
+    static long digitMask(String layout) {
+        long result = 0;
+        for (int i = layout.length() - 1; i >= 0; --i) {
+            result = (result << 8) | (layout.charAt(i) == 'd' ? 0xff : 0);
+        }
+        return result;
+    }
+
+    // layout bytes with zero for every d, little endian
+    static long layoutText(String layout) {
+        long result = 0;
+        for (int i = layout.length() - 1; i >= 0; --i) {
+            final char c = layout.charAt(i);
+            result = (result << 8) | (c == 'd' ? 0 : c);
+        }
+        return result;
+    }
+
+    // zero if bytes under digitMask are digits and others are text;
+    // digit is 0x3? and adding 6 to its low nibble does not carry
+    static long digitsMismatch(long word, long digitMask, long text) {
+        return ((word & ~digitMask) ^ text)
+                | ((word & digitMask & HIGH_NIBBLES) ^ (ZEROS & digitMask))
+                | (((word & digitMask & LOW_NIBBLES) + (SIXES & digitMask)) & HIGH_NIBBLES);
+    }
+
+    // number of count digits from byte from of little endian word
+    static int digits(long word, int from, int count) {
+        int result = 0;
+        for (int i = from; i < from + count; ++i) {
+            result = result * 10 + ((int) (word >>> (i * 8)) & 0xf);
+        }
+        return result;
+    }
+}
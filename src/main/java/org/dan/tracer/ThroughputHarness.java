@@ -0,0 +1,59 @@
+package org.dan.tracer;
+
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// runs tracer on generated log;
+// generator and tracer options are mixed, traces are discarded without -out
+public class ThroughputHarness {
+    private static final long MB = 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        final GeneratorOptions generatorOptions = new GeneratorOptions();
+        generatorOptions.parse(args);
+        final String[] tracerArgs = generatorOptions.getRest();
+        final CommandLineOptions options = new CommandLineOptions();
+        options.parse(tracerArgs);
+
+        final Map<Long, Long> lastLineNs = new ConcurrentHashMap<>();
+        final GeneratorChannel inputCh = new GeneratorChannel(
+                generatorOptions.newGenerator(), generatorOptions.getLines(),
+                generatorOptions.getLinesPerSecond(), lastLineNs);
+        final EmitLatencyChannel outputCh = new EmitLatencyChannel(
+                asList(tracerArgs).contains("-out") ? options.getOutputCh() : null,
+                lastLineNs);
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        final long started = System.nanoTime();
+        EntryPoint.run(options, inputCh, outputCh);
+        final long elapsedNs = System.nanoTime() - started;
+
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+        final double seconds = elapsedNs / 1e9;
+        System.out.printf("Live requests         %d%n", generatorOptions.getLiveRequests());
+        System.out.printf("Spans per request     %d%n", generatorOptions.getSpansPerRequest());
+        System.out.printf("Lines                 %d%n", inputCh.getGenerated());
+        System.out.printf("Elapsed               %.3f s%n", seconds);
+        System.out.printf("Throughput            %.0f lines/s%n", inputCh.getGenerated() / seconds);
+        System.out.printf("Traces                %d%n", outputCh.getRecords());
+        System.out.printf("Output                %.1f MB/s%n", outputCh.getBytes() / seconds / MB);
+        System.out.printf("Emit latency avg      %d ms%n",
+                NANOSECONDS.toMillis(outputCh.getAvgLatencyNs()));
+        System.out.printf("Emit latency max      %d ms%n",
+                NANOSECONDS.toMillis(outputCh.getMaxLatencyNs()));
+        System.out.printf("Peak heap             %d MB%n", peakHeap / MB);
+    }
+}
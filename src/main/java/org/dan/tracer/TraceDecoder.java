@@ -0,0 +1,160 @@
+package org.dan.tracer;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static org.dan.tracer.BinaryTraceWriter.MAGIC;
+import static org.dan.tracer.BinaryTraceWriter.MORE_CHILDREN;
+import static org.dan.tracer.BinaryTraceWriter.REQUEST_RECORD;
+import static org.dan.tracer.BinaryTraceWriter.SERVICE_RECORD;
+import static org.dan.tracer.BinaryTraceWriter.unZigZag;
+
+import com.koloboke.collect.map.hash.HashIntObjMap;
+import com.koloboke.collect.map.hash.HashIntObjMaps;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+// converts output of BinaryTraceWriter back to json lines
+public class TraceDecoder {
+    private final InputStream in;
+    private final WritableByteChannel outputCh;
+    private final ByteBuffer outputBuf;
+    private final HashIntObjMap<JsonTraceWriter> writers = HashIntObjMaps.newMutableMap();
+    private final HashIntObjMap<Dictionary> dictionaries = HashIntObjMaps.newMutableMap();
+    private long[] starts = new long[16];
+    private boolean[] parents = new boolean[16];
+    private int[] children = new int[16];
+
+    public static void main(String[] args) throws IOException {
+        final CommandLineOptions options = new CommandLineOptions();
+        options.parse(args);
+        new TraceDecoder(options.getInputCh(), options.getOutputCh(),
+                options.getWriteBufferBytes()).decode();
+    }
+
+    public TraceDecoder(ReadableByteChannel inputCh, WritableByteChannel outputCh,
+            int writeBufferBytes) {
+        this.in = new BufferedInputStream(Channels.newInputStream(inputCh), 256 * 1024);
+        this.outputCh = outputCh;
+        this.outputBuf = ByteBuffer.allocateDirect(writeBufferBytes).order(LITTLE_ENDIAN);
+    }
+
+    public void decode() throws IOException {
+        try {
+            final byte[] magic = new byte[MAGIC.length];
+            readFully(magic);
+            if (!Arrays.equals(MAGIC, magic)) {
+                throw new IOException("Input is not binary trace stream");
+            }
+            int record;
+            while ((record = in.read()) >= 0) {
+                if (record == SERVICE_RECORD) {
+                    readService();
+                } else if (record == REQUEST_RECORD) {
+                    readRequest();
+                } else {
+                    throw new IOException("Unknown record type " + record);
+                }
+            }
+        } finally {
+            outputBuf.flip();
+            while (outputBuf.hasRemaining()) {
+                outputCh.write(outputBuf);
+            }
+            outputCh.close();
+        }
+    }
+
+    private void readService() throws IOException {
+        final int dictionaryId = (int) readVarLong();
+        final int serviceId = (int) readVarLong();
+        final byte[] name = new byte[(int) readVarLong()];
+        readFully(name);
+        Dictionary dictionary = dictionaries.get(dictionaryId);
+        if (dictionary == null) {
+            dictionaries.put(dictionaryId, dictionary = Dictionary.create());
+            writers.put(dictionaryId, new JsonTraceWriter(outputCh, outputBuf, dictionary));
+        }
+        if (dictionary.add(ByteBuffer.wrap(name)) != serviceId) {
+            throw new IOException("Service " + serviceId + " is out of order");
+        }
+    }
+
+    private void readRequest() throws IOException {
+        final int dictionaryId = (int) readVarLong();
+        final JsonTraceWriter writer = writers.get(dictionaryId);
+        if (writer == null) {
+            throw new IOException("Undefined dictionary " + dictionaryId);
+        }
+        writer.beginRequest(readLong());
+        readSpan(writer, 0, true);
+        int depth = 1;
+        while (depth > 0) {
+            final int top = depth - 1;
+            if (parents[top] && readByte() == MORE_CHILDREN) {
+                readSpan(writer, depth++, children[top]++ == 0);
+            } else {
+                writer.endSpan(parents[top]);
+                --depth;
+            }
+        }
+        writer.endRequest();
+    }
+
+    private void readSpan(JsonTraceWriter writer, int depth, boolean first)
+            throws IOException {
+        final long spanId = readLong();
+        final long service = readVarLong();
+        final boolean hasChildren = (service & 1) != 0;
+        final long started = (depth == 0 ? 0 : starts[depth - 1]) + unZigZag(readVarLong());
+        final long ended = started + unZigZag(readVarLong());
+        if (depth == starts.length) {
+            starts = Arrays.copyOf(starts, depth * 2);
+            parents = Arrays.copyOf(parents, depth * 2);
+            children = Arrays.copyOf(children, depth * 2);
+        }
+        starts[depth] = started;
+        parents[depth] = hasChildren;
+        children[depth] = 0;
+        writer.beginSpan(spanId, started, ended, (int) (service >>> 1), hasChildren, first);
+    }
+
+    private int readByte() throws IOException {
+        final int b = in.read();
+        if (b < 0) {
+            throw new EOFException("Truncated record");
+        }
+        return b;
+    }
+
+    private long readLong() throws IOException {
+        long n = 0;
+        for (int i = 0; i < 8; ++i) {
+            n |= (long) readByte() << (i * 8);
+        }
+        return n;
+    }
+
+    private long readVarLong() throws IOException {
+        long n = 0;
+        for (int shift = 0; ; shift += 7) {
+            final int b = readByte();
+            n |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return n;
+            }
+        }
+    }
+
+    private void readFully(byte[] bytes) throws IOException {
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = (byte) readByte();
+        }
+    }
+}
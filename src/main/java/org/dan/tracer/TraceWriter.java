@@ -0,0 +1,140 @@
+package org.dan.tracer;
+
+import static org.dan.tracer.SpanSlabs.NONE;
+
+import java.util.Arrays;
+import java.util.List;
+
+// walks span trees without recursion and leaves format to subclasses
+public abstract class TraceWriter {
+    private Span[] spans = new Span[16];
+    private int[] nextChildren = new int[16];
+    private int[] slots = new int[16];
+    // bits of slab spans on path being written
+    private long[] writing = new long[16];
+    protected IdInterner ids;
+
+    // bytes of interned request ids
+    public void setIds(IdInterner ids) {
+        this.ids = ids;
+    }
+
+    public abstract void beginRequest(long requestId);
+
+    public abstract void endRequest();
+
+    // first is true for the first child of its parent
+    protected abstract void beginSpan(long spanId, long started, long ended,
+            int serviceId, boolean hasChildren, boolean first);
+
+    protected abstract void endSpan(boolean hasChildren);
+
+    // a span logged under several callers is written under each of them,
+    // but not inside itself, so a cycle of callers is cut
+    public void writeTree(Span root) {
+        int depth = 0;
+        push(depth++, root);
+        beginSpan(root, true);
+        while (depth > 0) {
+            final Span span = spans[depth - 1];
+            final List<Span> children = span.getChildren();
+            final int i = writableChild(children, nextChildren[depth - 1]);
+            if (i < children.size()) {
+                final Span child = children.get(i);
+                final boolean first = i == writableChild(children, 0);
+                nextChildren[depth - 1] = i + 1;
+                push(depth++, child);
+                beginSpan(child, first);
+            } else {
+                endSpan(writableChild(children, 0) < children.size());
+                span.setWriting(false);
+                spans[--depth] = null;
+            }
+        }
+    }
+
+    private static int writableChild(List<Span> children, int from) {
+        int i = from;
+        while (i < children.size() && children.get(i).isWriting()) {
+            ++i;
+        }
+        return i;
+    }
+
+    private void beginSpan(Span span, boolean first) {
+        final List<Span> children = span.getChildren();
+        beginSpan(span.getId(), span.getStarted(), span.getEnded(), span.getServiceId(),
+                writableChild(children, 0) < children.size(), first);
+    }
+
+    private void push(int depth, Span span) {
+        if (depth == spans.length) {
+            spans = Arrays.copyOf(spans, depth * 2);
+            nextChildren = Arrays.copyOf(nextChildren, depth * 2);
+        }
+        spans[depth] = span;
+        nextChildren[depth] = 0;
+        span.setWriting(true);
+    }
+
+    // slot is a span or its alias, children and times are of the span
+    public void writeTree(SpanSlabs slabs, int root) {
+        int depth = 0;
+        int slot = root;
+        boolean first = true;
+        while (true) {
+            if (depth == slots.length) {
+                slots = Arrays.copyOf(slots, depth * 2);
+            }
+            slots[depth++] = slot;
+            final int span = slabs.getTarget(slot);
+            setWriting(span, true);
+            int child = writableChild(slabs, slabs.getFirstChild(span));
+            beginSpan(slabs.getId(span), slabs.getStarted(span), slabs.getEnded(span),
+                    slabs.getServiceId(span), child != NONE, first);
+            if (child != NONE) {
+                slot = child;
+                first = true;
+                continue;
+            }
+            while (true) {
+                slot = slots[--depth];
+                final int ended = slabs.getTarget(slot);
+                endSpan(writableChild(slabs, slabs.getFirstChild(ended)) != NONE);
+                setWriting(ended, false);
+                if (depth == 0) {
+                    return;
+                }
+                child = writableChild(slabs, slabs.getNextSibling(slot));
+                if (child != NONE) {
+                    slot = child;
+                    first = false;
+                    break;
+                }
+            }
+        }
+    }
+
+    private int writableChild(SpanSlabs slabs, int from) {
+        int slot = from;
+        while (slot != NONE && isWriting(slabs.getTarget(slot))) {
+            slot = slabs.getNextSibling(slot);
+        }
+        return slot;
+    }
+
+    private boolean isWriting(int span) {
+        return span >> 6 < writing.length && (writing[span >> 6] & 1L << span) != 0;
+    }
+
+    private void setWriting(int span, boolean on) {
+        if (span >> 6 >= writing.length) {
+            writing = Arrays.copyOf(writing, Math.max(writing.length * 2, (span >> 6) + 1));
+        }
+        if (on) {
+            writing[span >> 6] |= 1L << span;
+        } else {
+            writing[span >> 6] &= ~(1L << span);
+        }
+    }
+}
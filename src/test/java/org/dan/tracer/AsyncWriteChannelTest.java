@@ -0,0 +1,110 @@
+package org.dan.tracer;
+
+import static org.dan.tracer.ShardedReconstructorTest.INPUT;
+import static org.dan.tracer.ShardedReconstructorTest.run;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class AsyncWriteChannelTest {
+    @Test
+    public void keepOrderOfWrites() throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final StringBuilder expected = new StringBuilder();
+        try (AsyncWriteChannel ch = new AsyncWriteChannel(Channels.newChannel(output), 7, 2)) {
+            for (int i = 0; i < 1000; ++i) {
+                final String chunk = i + ",";
+                expected.append(chunk);
+                assertEquals(chunk.length(), ch.write(ByteBuffer.wrap(chunk.getBytes())));
+            }
+        }
+        assertEquals(expected.toString(), new String(output.toByteArray()));
+    }
+
+    @Test(expected = IOException.class)
+    public void failureOfDelegateReachesParser() throws IOException {
+        final WritableByteChannel failing = new WritableByteChannel() {
+            public int write(ByteBuffer src) throws IOException {
+                throw new IOException("disk full");
+            }
+
+            public boolean isOpen() {
+                return true;
+            }
+
+            public void close() {
+            }
+        };
+        final AsyncWriteChannel ch = new AsyncWriteChannel(failing, 10, 2);
+        for (int i = 0; i < 1000; ++i) {
+            ch.write(ByteBuffer.wrap("0123456789".getBytes()));
+        }
+        ch.close();
+    }
+
+    @Test
+    public void sameTracesAsSyncOutput() throws Exception {
+        final CommandLineOptions options = new CommandLineOptions();
+        options.parse(new String[] {"-out-buffers", "3", "-wbuf", "100"});
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        EntryPoint.run(options,
+                Channels.newChannel(new ByteArrayInputStream(INPUT.getBytes())),
+                Channels.newChannel(output));
+        assertEquals(run("-wbuf", "100"), new String(output.toByteArray()));
+    }
+
+    @Test
+    public void compressedOutput() throws Exception {
+        final CommandLineOptions options = new CommandLineOptions();
+        options.parse(new String[] {"-out-compress", "-wbuf", "100"});
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        EntryPoint.run(options,
+                Channels.newChannel(new ByteArrayInputStream(INPUT.getBytes())),
+                Channels.newChannel(output));
+        final ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+        try (GZIPInputStream in = new GZIPInputStream(
+                new ByteArrayInputStream(output.toByteArray()))) {
+            final byte[] buf = new byte[100];
+            int read;
+            while ((read = in.read(buf)) > 0) {
+                decompressed.write(buf, 0, read);
+            }
+        }
+        assertEquals(run("-wbuf", "100"), new String(decompressed.toByteArray()));
+    }
+
+    // -max-latency flushes output, so traces are readable before close
+    @Test(timeout = 10000)
+    public void flushCompressedOutputBeforeClose() throws Exception {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final GZIPOutputStream gzip = new GZIPOutputStream(output, 100, true);
+        final byte[] trace = "{\"id\":\"eckakaau\"}\n".getBytes();
+        try (AsyncWriteChannel ch = new AsyncWriteChannel(Channels.newChannel(gzip),
+                gzip, 100, 2)) {
+            ch.write(ByteBuffer.wrap(trace));
+            ch.flush();
+            final byte[] read = new byte[trace.length];
+            while (true) {
+                try (DataInputStream in = new DataInputStream(new GZIPInputStream(
+                        new ByteArrayInputStream(output.toByteArray())))) {
+                    in.readFully(read);
+                    break;
+                } catch (EOFException e) {
+                    Thread.sleep(10);
+                }
+            }
+            assertEquals(new String(trace), new String(read));
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.dan.tracer;
+
+import static java.util.Arrays.asList;
+import static org.dan.tracer.ShardedReconstructorTest.runInput;
+import static org.dan.tracer.ShardedReconstructorTest.sorted;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class CheckpointTest {
+    private Path dir;
+    private Path log;
+    private Path state;
+    private String input;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("checkpoint");
+        log = dir.resolve("app.log");
+        state = dir.resolve("state");
+        final ByteBuffer generated = new LogGenerator(1, 10, 5, 20).generate(3000);
+        input = new String(generated.array(), 0, generated.limit());
+        Files.write(log, input.getBytes());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(log);
+        Files.deleteIfExists(state);
+        Files.delete(dir);
+    }
+
+    // parses head of log without emitting and saves state in the middle of a line
+    private void checkpointHead(int headBytes, SpillFile spillFile) {
+        checkpointHead(headBytes, spillFile, null);
+    }
+
+    private void checkpointHead(int headBytes, SpillFile spillFile, String format) {
+        final Dictionary dictionary = Dictionary.create();
+        final RequestRepo repo = new RequestRepo(dictionary, null,
+                ByteBuffer.allocate(1000).order(ByteOrder.LITTLE_ENDIAN));
+        repo.setSpillFile(spillFile, 100);
+        final LogLineParser parser = format == null
+                ? new LogLineParser(dictionary, repo)
+                : new FormatLineParser(dictionary, repo, LineFormat.parse(format));
+        final ByteBuffer head = ByteBuffer.wrap(input.getBytes(), 0, headBytes)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        long logTime = 0;
+        while (head.remaining() > 120) {
+            logTime = Math.max(logTime, parser.parse(head));
+        }
+        new Checkpoint(state, dictionary, repo, parser, 100)
+                .write(head.position(), logTime);
+    }
+
+    private String resume(String... args) throws Exception {
+        final CommandLineOptions options = new CommandLineOptions();
+        final List<String> allArgs = new ArrayList<>(asList("-in", log.toString(),
+                "-checkpoint", state.toString(), "-resume"));
+        allArgs.addAll(asList(args));
+        options.parse(allArgs.toArray(new String[0]));
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        EntryPoint.run(options, options.getInputCh(), Channels.newChannel(output));
+        return new String(output.toByteArray());
+    }
+
+    @Test
+    public void resumeSameTraces() throws Exception {
+        checkpointHead(input.length() / 2, null);
+        assertEquals(sorted(runInput(input)), sorted(resume()));
+    }
+
+    @Test
+    public void resumeSpilledRequests() throws Exception {
+        try (SpillFile spillFile = new SpillFile(dir, 1000)) {
+            checkpointHead(input.length() / 3, spillFile);
+        }
+        assertEquals(sorted(runInput(input)), sorted(resume()));
+    }
+
+    @Test
+    public void resumeInternedIds() throws Exception {
+        final String format = "{start} {end} {request:text} {service} {caller:text}->{span:text}";
+        input = input.replaceAll("(?m) (\\S+) (\\S+) (\\S+)->(\\S+)$",
+                " request-$1 $2 span-$3->span-$4").replace("span-null->", "null->");
+        Files.write(log, input.getBytes());
+        checkpointHead(input.length() / 2, null, format);
+        final String expected = runInput(input, "-in-format", format);
+        assertEquals(true, expected.startsWith("{\"id\":\"request-"));
+        assertEquals(sorted(expected), sorted(resume("-in-format", format)));
+    }
+
+    @Test
+    public void resumeWithoutCheckpoint() throws Exception {
+        assertEquals(sorted(runInput(input)), sorted(resume()));
+    }
+
+    @Test
+    public void finalCheckpointAtEndOfInput() throws Exception {
+        resume();
+        assertEquals("", resume());
+    }
+}
@@ -13,6 +13,8 @@ import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPOutputStream;
 
 public class CommandLineOptionsTest {
     private CommandLineOptions options;
@@ -43,6 +45,32 @@ public class CommandLineOptionsTest {
         }
     }
 
+    @Test
+    public void decompressGzipInput() throws IOException {
+        final Path input = Files.createTempFile("input", "gz");
+        try {
+            try (GZIPOutputStream out = new GZIPOutputStream(Files.newOutputStream(input))) {
+                out.write("hel".getBytes());
+            }
+            try (GZIPOutputStream out = new GZIPOutputStream(
+                    Files.newOutputStream(input, StandardOpenOption.APPEND))) {
+                out.write("lo".getBytes());
+            }
+            options.parse(new String[] {"-in", input.toString()});
+            try {
+                final ByteBuffer buf = ByteBuffer.allocate(6);
+                while (options.getInputCh().read(buf) >= 0) {
+                }
+                buf.flip();
+                assertEquals("hello", new String(buf.array(), 0, buf.limit()));
+            } finally {
+                options.getInputCh().close();
+            }
+        } finally {
+            Files.deleteIfExists(input);
+        }
+    }
+
     @Test
     public void overrideOutput() throws IOException {
         final Path output = Files.createTempFile("output", "xx");
@@ -0,0 +1,48 @@
+package org.dan.tracer;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+public class DateTimeWriterTest {
+    private static String format(long time) {
+        final ByteBuffer b = ByteBuffer.allocate(40).order(LITTLE_ENDIAN);
+        LogLineParser.writeDateTime(b, time);
+        return new String(b.array(), 0, b.position());
+    }
+
+    private static String format(DateTimeWriter writer, long time) {
+        final ByteBuffer b = ByteBuffer.allocate(40).order(LITTLE_ENDIAN);
+        writer.write(b, time);
+        return new String(b.array(), 0, b.position());
+    }
+
+    @Test
+    public void sameAsWriteDateTime() {
+        final DateTimeWriter writer = new DateTimeWriter();
+        final Random random = new Random(1);
+        long time = 1382523184978L;
+        for (int i = 0; i < 100000; ++i) {
+            time += random.nextInt(i % 100 == 0 ? 1 << 30 : 1 << 12) - (1 << 10);
+            assertEquals(format(time), format(writer, time));
+        }
+        for (long t : new long[] {0, -1, 3599999, 3600000, LogLineParser.MIN_TIME,
+                LogLineParser.MIN_TIME - 1, LogLineParser.MAX_TIME - 1, LogLineParser.MAX_TIME,
+                Long.MAX_VALUE, Long.MIN_VALUE}) {
+            assertEquals(format(t), format(writer, t));
+        }
+    }
+
+    @Test
+    public void writeWholeHourPrefix() {
+        assertEquals(format(Long.MIN_VALUE), format(new DateTimeWriter(), Long.MIN_VALUE));
+        final DateTimeWriter writer = new DateTimeWriter();
+        assertEquals("2013-10-23 10:13:04.978", format(writer, 1382523184978L));
+        assertEquals("2013-10-23 10:59:59.999", format(writer, 1382525999999L));
+        assertEquals("2013-10-23 11:00:00.000", format(writer, 1382526000000L));
+    }
+}
@@ -0,0 +1,43 @@
+package org.dan.tracer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class DictionaryTest {
+    @Test
+    public void sliceOfInput() {
+        final Dictionary dictionary = Dictionary.create();
+        final ByteBuffer input = ByteBuffer.wrap("xx service1 yy service1 ".getBytes());
+        final int id = dictionary.add(input, 3, 8);
+        assertEquals(1, id);
+        assertEquals(id, dictionary.add(input, 15, 8));
+        assertEquals(id, dictionary.add(ByteBuffer.wrap("service1".getBytes())));
+        assertEquals("service1", new String(dictionary.getById(id).array()));
+    }
+
+    @Test
+    public void prefixIsDifferentWord() {
+        final Dictionary dictionary = Dictionary.create();
+        final ByteBuffer input = ByteBuffer.wrap("service12".getBytes());
+        assertEquals(1, dictionary.add(input, 0, 9));
+        assertEquals(2, dictionary.add(input, 0, 8));
+        assertEquals(2, dictionary.size());
+    }
+
+    @Test
+    public void grow() {
+        final Dictionary dictionary = Dictionary.create();
+        for (int i = 1; i <= 1000; ++i) {
+            assertEquals(i, dictionary.add(ByteBuffer.wrap(("s" + i).getBytes())));
+        }
+        for (int i = 1; i <= 1000; ++i) {
+            assertEquals(i, dictionary.add(ByteBuffer.wrap(("s" + i).getBytes())));
+            assertEquals("s" + i, new String(dictionary.getById(i).array()));
+        }
+        assertNull(dictionary.getById(1001));
+    }
+}
@@ -0,0 +1,29 @@
+package org.dan.tracer;
+
+import static org.dan.tracer.LogLineParserTest.asLong;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+public class EmitLatencyChannelTest {
+    @Test
+    public void recordSplitBetweenWrites() throws Exception {
+        final Map<Long, Long> lastLineNs = new HashMap<>();
+        lastLineNs.put(asLong("abcdefgh"), System.nanoTime());
+        lastLineNs.put(asLong("12345678"), System.nanoTime());
+        final EmitLatencyChannel channel = new EmitLatencyChannel(null, lastLineNs);
+        final String output = "{\"id\":\"abcdefgh\",\"root\":{}}\n{\"id\":\"12345678\",\"root\":{}}\n";
+        channel.write(ByteBuffer.wrap(output.substring(0, 10).getBytes()));
+        channel.write(ByteBuffer.wrap(output.substring(10, 40).getBytes()));
+        channel.write(ByteBuffer.wrap(output.substring(40).getBytes()));
+        assertEquals(2, channel.getRecords());
+        assertEquals(2, channel.getMeasured());
+        assertEquals(output.length(), channel.getBytes());
+        assertTrue(lastLineNs.isEmpty());
+    }
+}
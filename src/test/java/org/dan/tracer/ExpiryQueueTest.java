@@ -0,0 +1,61 @@
+package org.dan.tracer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class ExpiryQueueTest {
+    private final ExpiryQueue queue = new ExpiryQueue(10, 8);
+
+    private static Request request(long id, long lastLine) {
+        final Request request = new Request(id);
+        request.updateLastTimeStamp(lastLine);
+        return request;
+    }
+
+    @Test
+    public void drainOnlyDueBuckets() {
+        final Request early = request(1, 1005);
+        final Request late = request(2, 1035);
+        queue.add(early);
+        queue.add(late);
+        assertEquals(0, queue.drain(999));
+        assertEquals(1, queue.drain(1019));
+        assertSame(early, queue.drained(0));
+        assertEquals(1, queue.size());
+        assertEquals(1, queue.drain(1039));
+        assertSame(late, queue.drained(0));
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void lateRequestFarBeyondWheel() {
+        final Request first = request(1, 1000);
+        final Request far = request(2, 100000);
+        queue.add(first);
+        queue.add(far);
+        assertEquals(1, queue.drain(1000));
+        assertSame(first, queue.drained(0));
+        assertEquals(1, queue.drain(5000));
+        assertSame(far, queue.drained(0));
+    }
+
+    @Test
+    public void earlierThanCursorGoesToCursor() {
+        queue.add(request(1, 1000));
+        final Request earlier = request(2, 500);
+        queue.add(earlier);
+        assertEquals(0, queue.drain(900));
+        assertEquals(2, queue.drain(1000));
+    }
+
+    @Test
+    public void bigLimitDrainsEverything() {
+        for (int i = 0; i < 100; ++i) {
+            queue.add(request(i, 1000 + i * 7));
+        }
+        assertEquals(100, queue.drain(Long.MAX_VALUE / 2));
+        assertEquals(0, queue.size());
+    }
+}
@@ -0,0 +1,94 @@
+package org.dan.tracer;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static org.dan.tracer.ShardedReconstructorTest.INPUT;
+import static org.dan.tracer.ShardedReconstructorTest.run;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class FollowChannelTest {
+    private Path dir;
+    private Path log;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("follow");
+        log = dir.resolve("app.log");
+        Files.write(log, "first\n".getBytes());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(log);
+        Files.deleteIfExists(dir.resolve("app.log.1"));
+        Files.delete(dir);
+    }
+
+    private static String read(FollowChannel ch) throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate(100);
+        while (ch.read(buf) > 0) {
+        }
+        buf.flip();
+        return new String(buf.array(), 0, buf.limit());
+    }
+
+    @Test
+    public void readGrowingFile() throws IOException {
+        try (FollowChannel ch = new FollowChannel(log, 1)) {
+            assertEquals("first\n", read(ch));
+            assertEquals("", read(ch));
+            Files.write(log, "second\n".getBytes(), APPEND);
+            assertEquals("second\n", read(ch));
+        }
+    }
+
+    @Test
+    public void reopenRotatedFile() throws IOException {
+        try (FollowChannel ch = new FollowChannel(log, 1)) {
+            assertEquals("first\n", read(ch));
+            Files.move(log, dir.resolve("app.log.1"));
+            assertEquals("", read(ch));
+            Files.write(log, "new\n".getBytes());
+            assertEquals("new\n", read(ch));
+        }
+    }
+
+    @Test
+    public void rereadTruncatedFile() throws IOException {
+        try (FollowChannel ch = new FollowChannel(log, 1)) {
+            assertEquals("first\n", read(ch));
+            Files.write(log, "2nd\n".getBytes());
+            assertEquals("2nd\n", read(ch));
+        }
+    }
+
+    @Test
+    public void emitTracesWhenInterrupted() throws Exception {
+        Files.write(log, INPUT.getBytes());
+        final CommandLineOptions options = new CommandLineOptions();
+        options.parse(new String[] {"-in", log.toString(), "-follow"});
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final Thread tracer = new Thread(() -> {
+            try {
+                EntryPoint.run(options, options.getInputCh(), Channels.newChannel(output));
+            } catch (IOException | InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        tracer.start();
+        Thread.sleep(300);
+        tracer.interrupt();
+        tracer.join();
+        assertEquals(run(), new String(output.toByteArray()));
+    }
+}
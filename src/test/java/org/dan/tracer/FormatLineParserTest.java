@@ -0,0 +1,134 @@
+package org.dan.tracer;
+
+import static org.dan.tracer.LogLineParser.NULL_SPAN;
+import static org.dan.tracer.LogLineParserTest.asLong;
+import static org.dan.tracer.ShardedReconstructorTest.INPUT;
+import static org.dan.tracer.ShardedReconstructorTest.run;
+import static org.dan.tracer.ShardedReconstructorTest.runInput;
+import static org.dan.tracer.ShardedReconstructorTest.sorted;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class FormatLineParserTest {
+    private final Dictionary dictionary = Dictionary.create();
+    private final List<String> lines = new ArrayList<>();
+    private final RequestRepo repo = new RequestRepo(null, null, null) {
+        @Override
+        public void line(int serviceId, long requestId, long started, long ended,
+                long callerSnapId, long snapId) {
+            lines.add(serviceId + " " + requestId + " " + started + " " + ended
+                    + " " + callerSnapId + " " + snapId);
+        }
+    };
+
+    private static ByteBuffer input(String text) {
+        return ByteBuffer.wrap(text.getBytes()).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static String line(int serviceId, long requestId, long started, long ended,
+            long callerSnapId, long snapId) {
+        return serviceId + " " + requestId + " " + started + " " + ended
+                + " " + callerSnapId + " " + snapId;
+    }
+
+    private void parseAll(LogLineParser parser, String text) {
+        final ByteBuffer in = input(text);
+        while (in.hasRemaining()) {
+            parser.parse(in);
+        }
+    }
+
+    @Test
+    public void sameLinesAsDefaultParser() {
+        parseAll(new FormatLineParser(dictionary, repo, LineFormat.parse(LineFormat.DEFAULT)),
+                ShardedReconstructorTest.INPUT);
+        final List<String> expected = new ArrayList<>(lines);
+        lines.clear();
+        parseAll(new LogLineParser(dictionary, repo), ShardedReconstructorTest.INPUT);
+        assertEquals(lines, expected);
+        assertEquals(6, lines.size());
+    }
+
+    @Test
+    public void parseHexAndMillis() {
+        final LogLineParser parser = new FormatLineParser(dictionary, repo, LineFormat.parse(
+                "{request:hex}|{start:ms}|{end:ms}|{span:text}<-{caller:text}|{service}"));
+        parseAll(parser, "00ff|1382523155271|1382523155471|d6m3<-null|service6\n"
+                + "FF00000000000001|5|7|b<-a|s\n");
+        assertEquals(line(1, asLong("00ff\0\0\0\0"), 1382523155271L, 1382523155471L, NULL_SPAN, asLong("d6m3\0\0\0\0")),
+                lines.get(0));
+        assertEquals("FF00000000000001", new String(
+                repo.getIds().bytesOf(Long.parseLong(lines.get(1).split(" ")[1]))));
+        assertEquals("s", new String(dictionary.getById(2).array()));
+    }
+
+    @Test
+    public void skipMalformedLines() {
+        final Metrics metrics = new Metrics(1);
+        final LogLineParser parser = new FormatLineParser(dictionary, repo, LineFormat.parse(
+                "{request:hex} {start:ms} {end:ms} {service} {caller:hex}->{span:hex}"));
+        parser.setCounters(metrics.parser(0));
+        final ByteBuffer in = input("1g 1 2 s null->1\n"
+                + "1 1 2 s null->11111111111111111\n"
+                + "1 1 2 s null->1 tail\n"
+                + "1 1 2 s null\n"
+                + "1 1 2 s null->1\n");
+        for (int i = 0; i < 4; ++i) {
+            assertEquals(0, parser.parse(in));
+        }
+        assertEquals(2, parser.parse(in));
+        assertFalse(in.hasRemaining());
+        assertEquals(4, metrics.get(Metrics.MALFORMED_LINES));
+        assertEquals(1, lines.size());
+    }
+
+    @Test
+    public void keepHexRequestIdsInJson() throws Exception {
+        final String[][] ids = {{"eckakaau", "00000000000000Ff"},
+                {"aaaaaaaa", "0a"}, {"zzzzzzzz", "123456789abcdef0"}};
+        String input = INPUT;
+        String expected = run();
+        for (String[] id : ids) {
+            input = input.replace(id[0], id[1]);
+            expected = expected.replace("\"id\":\"" + id[0], "\"id\":\"" + id[1]);
+        }
+        final String format = "{start} {end} {request:hex} {service} {caller:text}->{span:text}";
+        assertEquals(sorted(expected), sorted(runInput(input, "-in-format", format)));
+    }
+
+    // lines are longer than -max-line, so some straddle end of read buffer
+    @Test
+    public void readMoreForIncompleteLine() throws Exception {
+        final String format = "{start} {end} {request:text} {service} {caller:text}->{span:text}";
+        for (int length = 40; length <= 96; ++length) {
+            String input = INPUT;
+            String expected = run();
+            for (String id : new String[] {"eckakaau", "aaaaaaaa", "zzzzzzzz", "zfjlsiev",
+                    "d6m3shqy", "22buxmqp", "bbbbbbbb", "cccccccc", "yyyyyyyy"}) {
+                final String longId = (id + id + id + id + id + id + id + id + id + id + id + id)
+                        .substring(0, length);
+                input = input.replace(id, longId);
+                expected = expected.replace("\"id\":\"" + id, "\"id\":\"" + longId);
+            }
+            assertEquals(sorted(expected), sorted(runInput(input, "-in-format", format)));
+        }
+    }
+
+    @Test
+    public void skipLineLongerThanReadBuffer() throws Exception {
+        final char[] longId = new char[1100];
+        Arrays.fill(longId, 'z');
+        final List<String> expected = sorted(run());
+        expected.removeIf(trace -> trace.startsWith("{\"id\":\"zzzzzzzz"));
+        assertEquals(expected, sorted(runInput(INPUT.replace("zzzzzzzz", new String(longId)),
+                "-in-format", "{start} {end} {request:text} {service} {caller}->{span}")));
+    }
+}
@@ -0,0 +1,78 @@
+package org.dan.tracer;
+
+import static org.dan.tracer.LogLineParserTest.asLong;
+import static org.dan.tracer.LogLineParserTest.wrap;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class IdInternerTest {
+    private final IdInterner ids = new IdInterner();
+
+    private long intern(String id) {
+        final ByteBuffer in = wrap("<" + id + ">");
+        return ids.intern(in, 1, in.limit() - 1);
+    }
+
+    @Test
+    public void packShortIds() {
+        assertEquals(asLong("tiaka23p"), intern("tiaka23p"));
+        assertEquals('a', intern("a"));
+        assertNull(ids.bytesOf(intern("tiaka23p")));
+        assertEquals(0, ids.size());
+    }
+
+    @Test
+    public void internLongIds() {
+        final String uuid = "550e8400-e29b-41d4-a716-446655440000";
+        final long key = intern(uuid);
+        assertTrue(key < 0);
+        assertEquals(key, intern(uuid));
+        assertNotEquals(key, intern("550e8400-e29b-41d4-a716-446655440001"));
+        assertArrayEquals(uuid.getBytes(), ids.bytesOf(key));
+        assertEquals(2, ids.size());
+        ids.release(key);
+        assertNull(ids.bytesOf(key));
+    }
+
+    @Test
+    public void probeNextKeyOnCollision() {
+        final long key = intern("request-000000001");
+        ids.release(key);
+        ids.restore(key, "other-request-id".getBytes());
+        final long next = intern("request-000000001");
+        assertNotEquals(key, next);
+        assertEquals(next, intern("request-000000001"));
+        // every lookup probes past the taken key
+        assertEquals(2, ids.getCollisions());
+        assertArrayEquals("other-request-id".getBytes(), ids.bytesOf(key));
+    }
+
+    @Test
+    public void releaseInsideProbeChain() {
+        final long key = intern("request-000000001");
+        ids.release(key);
+        ids.restore(key, "other-request-id".getBytes());
+        final long next = intern("request-000000001");
+        ids.release(key);
+        assertEquals(next, intern("request-000000001"));
+        assertEquals(2, ids.size());
+        ids.release(next);
+        assertEquals(0, ids.size());
+    }
+
+    @Test
+    public void keyOfSpanIdIsNotKept() {
+        final String uuid = "550e8400-e29b-41d4-a716-446655440000";
+        final ByteBuffer in = wrap(uuid);
+        assertTrue(IdInterner.keyOf(in, 0, in.limit()) < 0);
+        assertEquals(asLong("span-1\0\0"), IdInterner.keyOf(wrap("span-1"), 0, 6));
+        assertEquals(0, ids.size());
+    }
+}
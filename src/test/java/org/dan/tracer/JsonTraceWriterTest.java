@@ -0,0 +1,103 @@
+package org.dan.tracer;
+
+import static org.dan.tracer.LogLineParser.NULL_SPAN;
+import static org.dan.tracer.LogLineParserTest.asLong;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+public class JsonTraceWriterTest {
+    private static final long REQUEST_ID = asLong("12345678");
+
+    private Dictionary dictionary;
+    private ByteArrayOutputStream output;
+    private WritableByteChannel outputCh;
+    private ByteBuffer outputBuf;
+
+    @Before
+    public void setUp() {
+        dictionary = Dictionary.create();
+        dictionary.add(ByteBuffer.wrap("service1".getBytes()));
+        output = new ByteArrayOutputStream();
+        outputCh = Channels.newChannel(output);
+        outputBuf = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private String json(Request request) throws Exception {
+        assertEquals(1, request.writeAsJson(outputCh, outputBuf, dictionary));
+        outputBuf.flip();
+        outputCh.write(outputBuf);
+        return output.toString("US-ASCII");
+    }
+
+    private static void chain(Request request, int depth) {
+        request.addLine(1, 0, depth, NULL_SPAN, 1);
+        for (int i = 1; i < depth; ++i) {
+            request.addLine(1, i, depth - i, i, i + 1);
+        }
+    }
+
+    private static void checkChain(String json, int depth) {
+        assertTrue(json.startsWith("{\"id\":\"12345678\",\"root\":{\"start\":"));
+        assertTrue(json.endsWith("]}]}}\n"));
+        assertEquals(depth - 1, json.split("\"calls\":\\[", -1).length - 1);
+    }
+
+    @Test
+    public void deepChainOfSpanObjects() throws Exception {
+        final Request request = new Request(REQUEST_ID);
+        chain(request, 100000);
+        checkChain(json(request), 100000);
+    }
+
+    @Test
+    public void deepChainOfSlabSpans() throws Exception {
+        final Request request = new SlabRequest(REQUEST_ID, new SpanSlabs(1));
+        chain(request, 100000);
+        checkChain(json(request), 100000);
+    }
+
+    @Test
+    public void serviceNameLongerThanBuffer() throws Exception {
+        final char[] name = new char[1000];
+        Arrays.fill(name, 's');
+        dictionary.add(ByteBuffer.wrap(new String(name).getBytes()));
+        final Request request = new Request(REQUEST_ID);
+        request.addLine(2, 1, 3, NULL_SPAN, asLong("aaaaaaaa"));
+        assertEquals("{\"id\":\"12345678\",\"root\":{\"start\":\""
+                        + "1970-01-01 00:00:00.001\",\"end\":\"1970-01-01 00:00:00.003\","
+                        + "\"service\":\"" + new String(name) + "\"}}\n",
+                json(request));
+    }
+
+    @Test
+    public void timeFitsTimeBytes() {
+        final ByteBuffer buffer = ByteBuffer.allocate(JsonTraceWriter.TIME_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        LogLineParser.writeDateTime(buffer, 1382523184978L);
+        assertEquals("2013-10-23 10:13:04.978",
+                new String(buffer.array(), 0, buffer.position()));
+    }
+
+    @Test
+    public void timeEndsAtBufferEnd() throws Exception {
+        final Request request = new Request(REQUEST_ID);
+        request.addLine(1, 1, 3, NULL_SPAN, asLong("aaaaaaaa"));
+        request.addLine(1, 2, 3, asLong("aaaaaaaa"), asLong("bbbbbbbb"));
+        final String expected = json(request);
+        for (int capacity = 40; capacity < 120; ++capacity) {
+            output.reset();
+            outputBuf = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+            assertEquals(expected, json(request));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.dan.tracer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LineFormatTest {
+    @Test
+    public void defaultFormat() {
+        final LineFormat format = LineFormat.parse(LineFormat.DEFAULT);
+        assertTrue(format.isDefault());
+        assertEquals(50, format.getRequestIdOffset());
+        assertEquals(MergedLogChannel.END_TIME_OFFSET, format.getEndTimeOffset());
+        assertTrue(LineFormat.parse(
+                "{start:iso} {end:iso} {request:raw} {service} {caller:raw}->{span:raw}")
+                .isDefault());
+    }
+
+    @Test
+    public void requestIdOffset() {
+        assertEquals(0, LineFormat.parse("{request} {start} {end} {service} {caller}->{span}")
+                .getRequestIdOffset());
+        assertEquals(-1, LineFormat.parse("{start:ms} {end} {request} {service} {caller}->{span}")
+                .getRequestIdOffset());
+        final LineFormat hex = LineFormat.parse(
+                "{start} {end} {request:hex} {service} {caller}->{span}");
+        assertFalse(hex.isDefault());
+        assertEquals(-1, hex.getRequestIdOffset());
+    }
+
+    @Test
+    public void endTimeOffset() {
+        assertEquals(-1, LineFormat.parse("{start} {end:ms} {request} {service} {caller}->{span}")
+                .getEndTimeOffset());
+        assertEquals(-1, LineFormat.parse("{request:text} {end} {start} {service} {caller}->{span}")
+                .getEndTimeOffset());
+    }
+
+    @Test
+    public void rejectBadFormats() {
+        for (String format : new String[] {
+                "{start} {end} {request} {service} {caller}->",
+                "{start} {end} {request} {service} {caller}->{span}{span}",
+                "{start} {end} {request} {service}{caller}->{span}",
+                "{start:hex} {end} {request} {service} {caller}->{span}",
+                "{start} {end} {request:iso} {service} {caller}->{span}",
+                "{start} {end} {request} {service:raw} {caller}->{span}",
+                "{start} {end} {request} {service} {caller}->{span",
+                "{start} {end} {request} {host} {caller}->{span}"}) {
+            try {
+                LineFormat.parse(format);
+                throw new AssertionError(format);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.dan.tracer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+public class LogGeneratorTest {
+    @Test
+    public void linesAreParsable() {
+        final int[] lines = new int[1];
+        final RequestRepo repo = new RequestRepo(null, null, null) {
+            @Override
+            public void line(int serviceId, long requestId, long started,
+                    long ended, long callerSnapId, long snapId) {
+                ++lines[0];
+                assertTrue(started <= ended);
+                assertTrue(serviceId > 0);
+            }
+        };
+        final LogLineParser parser = new LogLineParser(Dictionary.create(), repo);
+        final ByteBuffer input = new LogGenerator(1, 10, 5, 20).generate(1000);
+        while (input.hasRemaining()) {
+            assertTrue(parser.parse(input) >= LogGenerator.DEFAULT_START);
+            assertFalse(parser.isSearchNewLine());
+        }
+        assertEquals(1000, lines[0]);
+    }
+
+    @Test
+    public void sameSeedSameLog() {
+        assertEquals(new LogGenerator(7, 3, 4, 5).generate(100),
+                new LogGenerator(7, 3, 4, 5).generate(100));
+    }
+
+    @Test
+    public void orphansHaveNoRoot() {
+        final LogGenerator generator = new LogGenerator(1, 10, 5, 20);
+        generator.setOrphanRatio(1);
+        final String log = new String(generator.generate(1000).array());
+        assertFalse(log.contains(" null->"));
+    }
+
+    @Test
+    public void malformedLines() {
+        final LogGenerator generator = new LogGenerator(1, 10, 5, 20);
+        generator.setMalformedRatio(0.5);
+        int malformed = 0;
+        for (String line : new String(generator.generate(1000).array()).trim().split("\n")) {
+            if (line.length() < 60) {
+                ++malformed;
+            }
+        }
+        assertTrue(malformed > 400 && malformed < 600);
+    }
+
+    @Test
+    public void channelEnds() {
+        final Map<Long, Long> completed = new HashMap<>();
+        final GeneratorChannel channel = new GeneratorChannel(
+                new LogGenerator(1, 2, 2, 20), 100, 0, completed);
+        final ByteBuffer buf = ByteBuffer.allocate(100 * LogGenerator.MAX_LINE_BYTES);
+        assertTrue(channel.read(buf) > 0);
+        assertEquals(-1, channel.read(buf));
+        assertEquals(100, channel.getGenerated());
+        assertTrue(completed.size() > 10);
+    }
+}
@@ -5,6 +5,7 @@ import static java.util.Arrays.asList;
 import static org.dan.tracer.LogLineParser.readTimeStamp;
 import static org.dan.tracer.LogLineParser.writeIntAsStr;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
@@ -12,6 +13,7 @@ import org.junit.Test;
 import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.Instant;
 import java.util.Date;
 import java.util.TimeZone;
 
@@ -58,6 +60,67 @@ public class LogLineParserTest {
         }
     }
 
+    @Test
+    public void parseAnyYear() {
+        for (String date : asList(
+                "0000-01-01T00:00:00.000Z", "0001-03-01T12:30:45.678Z",
+                "1066-10-14T09:00:00.000Z", "1900-02-28T23:59:59.999Z",
+                "1969-12-31T23:59:59.999Z", "2000-02-29T00:00:00.001Z",
+                "2100-03-01T00:00:00.000Z", "2999-12-31T23:59:59.999Z",
+                "9999-12-31T23:59:59.999Z")) {
+            assertEquals(date, Instant.parse(date).toEpochMilli(),
+                    readTimeStamp(wrap(date + " ")));
+        }
+    }
+
+    @Test
+    public void rejectMalformedTimestamp() {
+        for (String date : asList(
+                "2013-13-01T00:00:00.000Z", "2013-00-01T00:00:00.000Z",
+                "2013-02-29T00:00:00.000Z", "2013-10-00T00:00:00.000Z",
+                "2013-10-2xT00:00:00.000Z", "2013/10/23T00:00:00.000Z",
+                "2013-10-23T24:00:00.000Z", "2013-10-23T10:60:00.000Z",
+                "2013-10-23T10:13:60.000Z", "2013-10-23T10:13:04.9:5Z",
+                "2013-10-23 10:13:04.945Z", "2013-10-23T10:13:04.945 ")) {
+            assertEquals(date, LogLineParser.INVALID_TIME, readTimeStamp(wrap(date + " ")));
+        }
+    }
+
+    @Test
+    public void formatAnyYear() {
+        for (String date : asList(
+                "0000-01-01T00:00:00.000Z", "1066-10-14T09:00:00.000Z",
+                "1969-12-31T23:59:59.999Z", "2000-02-29T00:00:00.001Z",
+                "2999-12-31T23:59:59.999Z", "9999-12-31T23:59:59.999Z")) {
+            assertEquals(date.replace('T', ' ').substring(0, 23),
+                    format(Instant.parse(date).toEpochMilli()));
+        }
+    }
+
+    @Test
+    public void malformedTimestampSkipsLine() {
+        Dictionary dictionary = Dictionary.create();
+        int[] callback = new int[1];
+        RequestRepo repo = new RequestRepo(null, null, null) {
+            @Override
+            public void line(int serviceId, long requestId, long started, long ended, long callerSnapId, long snapId) {
+                ++callback[0];
+                assertEquals(Instant.parse("2013-10-23T10:13:04.978Z").toEpochMilli(), started);
+            }
+        };
+        LogLineParser logLineParser = new LogLineParser(dictionary, repo);
+        ByteBuffer input = input(
+                "2013-10-23T10:13:04.978Z 2013-19-23T10:13:04.989Z 4twlb5e6 ser8 tmrya5qt->vmrya5qg\n"
+                        + "2013-10-23T10:13:04.978Z 2013-10-23T10:13:04.989Z 4twlb5e6 ser8 tmrya5qt->vmrya5qg\n");
+        assertEquals(0, logLineParser.parse(input));
+        assertTrue(logLineParser.isSearchNewLine());
+        assertEquals(0, logLineParser.parse(input));
+        assertEquals(Instant.parse("2013-10-23T10:13:04.989Z").toEpochMilli(),
+                logLineParser.parse(input));
+        assertEquals(1, callback[0]);
+        assertFalse(input.hasRemaining());
+    }
+
     @Test
     public void formatZero() throws ParseException {
         SimpleDateFormat parser = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
@@ -193,6 +256,27 @@ public class LogLineParserTest {
         assertTrue(logLineParser.isSearchNewLine());
     }
 
+    @Test
+    public void lineEndInServiceKeepsNextLine() {
+        Dictionary dictionary = Dictionary.create();
+        int[] callback = new int[1];
+        RequestRepo repo = new RequestRepo(null, null, null) {
+            @Override
+            public void line(int serviceId, long requestId, long started, long ended, long callerSnapId, long snapId) {
+                ++callback[0];
+            }
+        };
+        LogLineParser logLineParser = new LogLineParser(dictionary, repo);
+        ByteBuffer input = input(
+                "1970-01-01T00:00:00.000Z 1970-01-01T00:00:00.003Z 4twlb5e6 truncated-service\n"
+                        + "1970-01-01T00:00:00.000Z 1970-01-01T00:00:00.003Z 4twlb5e6 ser8 tmrya5qt->vmrya5qg\n");
+        assertEquals(0, logLineParser.parse(input));
+        assertFalse(logLineParser.isSearchNewLine());
+        assertEquals(3L, logLineParser.parse(input));
+        assertEquals(1, callback[0]);
+        assertFalse(input.hasRemaining());
+    }
+
     @Test
     public void write2DigitIntAsStr() {
         assertEquals("00", writeIntAsStr(0, 2));
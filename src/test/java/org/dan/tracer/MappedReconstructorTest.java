@@ -0,0 +1,72 @@
+package org.dan.tracer;
+
+import static org.dan.tracer.ShardedReconstructorTest.INPUT;
+import static org.dan.tracer.ShardedReconstructorTest.run;
+import static org.dan.tracer.ShardedReconstructorTest.sorted;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+public class MappedReconstructorTest {
+    @Test
+    public void sameTracesAsSingleThread() throws Exception {
+        assertEquals(sorted(run("-threads", "1")), sorted(map("-threads", "3")));
+    }
+
+    @Test
+    public void windowSmallerThanInput() throws Exception {
+        assertEquals(sorted(run("-threads", "1")),
+                sorted(map("-threads", "2", "-mmap-window", "200")));
+    }
+
+    @Test
+    public void chunksSplitMidLine() throws Exception {
+        assertEquals(sorted(run("-threads", "1")),
+                sorted(map("-threads", "5", "-mmap-window", "300")));
+    }
+
+    @Test
+    public void skipLineLongerThanWindow() throws Exception {
+        final CommandLineOptions options = new CommandLineOptions();
+        final char[] longLine = new char[500];
+        Arrays.fill(longLine, 'x');
+        final String input = INPUT.replace("\n2013-10-23T10:12:36.010Z",
+                "\n" + new String(longLine) + "\n2013-10-23T10:12:36.010Z");
+        assertEquals(sorted(run("-threads", "1")), sorted(mapInput(options, input,
+                "-threads", "2", "-mmap-window", "200")));
+        assertEquals(1, options.getMetrics().get(Metrics.MALFORMED_LINES));
+        assertEquals(input.length(), options.getMetrics().get(Metrics.BYTES_IN));
+    }
+
+    private String map(String... args) throws Exception {
+        return mapInput(new CommandLineOptions(), INPUT, args);
+    }
+
+    private String mapInput(CommandLineOptions options, String log, String... args)
+            throws Exception {
+        final Path input = Files.createTempFile("input", "log");
+        try {
+            Files.write(input, log.getBytes());
+            final String[] allArgs = new String[args.length + 3];
+            System.arraycopy(args, 0, allArgs, 0, args.length);
+            allArgs[args.length] = "-in";
+            allArgs[args.length + 1] = input.toString();
+            allArgs[args.length + 2] = "-mmap";
+            options.parse(allArgs);
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            new MappedReconstructor(options, (FileChannel) options.getInputCh(),
+                    Channels.newChannel(output))
+                    .reconstructTraces();
+            return new String(output.toByteArray());
+        } finally {
+            Files.deleteIfExists(input);
+        }
+    }
+}
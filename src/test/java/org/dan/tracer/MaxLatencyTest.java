@@ -0,0 +1,55 @@
+package org.dan.tracer;
+
+import static org.dan.tracer.ShardedReconstructorTest.INPUT;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+
+public class MaxLatencyTest {
+    // 3 minutes after requests of INPUT, so they are expired
+    private static final String LATE_LINE =
+            "2013-10-23T10:16:00.000Z 2013-10-23T10:16:00.100Z llllllll service1 null->ffffffff\n";
+
+    private static int traces(ByteArrayOutputStream output) {
+        return new String(output.toByteArray()).split("\n", -1).length - 1;
+    }
+
+    private static void emitWhileInputIsOpen(String... args) throws Exception {
+        final CommandLineOptions options = new CommandLineOptions();
+        options.parse(args);
+        final Pipe pipe = Pipe.open();
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final Thread tracer = new Thread(() -> {
+            try {
+                EntryPoint.run(options, pipe.source(), Channels.newChannel(output));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        tracer.start();
+        pipe.sink().write(ByteBuffer.wrap((INPUT + LATE_LINE).getBytes()));
+        final long giveUpAt = System.currentTimeMillis() + 10000;
+        while (traces(output) < 3 && System.currentTimeMillis() < giveUpAt) {
+            Thread.sleep(10);
+        }
+        assertEquals(3, traces(output));
+        pipe.sink().close();
+        tracer.join();
+        assertEquals(4, traces(output));
+    }
+
+    @Test
+    public void singleThread() throws Exception {
+        emitWhileInputIsOpen("-max-latency", "20");
+    }
+
+    @Test
+    public void shards() throws Exception {
+        emitWhileInputIsOpen("-max-latency", "20", "-threads", "2");
+    }
+}
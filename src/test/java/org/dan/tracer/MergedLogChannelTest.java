@@ -0,0 +1,122 @@
+package org.dan.tracer;
+
+import static java.util.Arrays.asList;
+import static org.dan.tracer.ShardedReconstructorTest.INPUT;
+import static org.dan.tracer.ShardedReconstructorTest.run;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class MergedLogChannelTest {
+    private static final String HOST1 =
+            "2013-10-23T10:12:35.000Z 2013-10-23T10:12:35.100Z aaaaaaaa s1 null->a\n"
+            + "2013-10-23T10:12:35.000Z 2013-10-23T10:12:35.300Z aaaaaaaa s1 null->b\n"
+            + "2013-10-23T10:12:35.000Z 2013-10-23T10:12:35.500Z aaaaaaaa s1 null->c";
+    private static final String HOST2 =
+            "2013-10-23T10:12:35.000Z 2013-10-23T10:12:35.200Z bbbbbbbb s2 null->d\n"
+            + "2013-10-23T10:12:35.000Z 2013-10-23T10:12:35.400Z bbbbbbbb s2 null->e\n";
+
+    private static ReadableByteChannel channel(String log) {
+        return Channels.newChannel(new ByteArrayInputStream(log.getBytes()));
+    }
+
+    private static String readAll(ReadableByteChannel ch, int bufferBytes) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final ByteBuffer buf = ByteBuffer.allocate(bufferBytes);
+        while (ch.read(buf) >= 0) {
+            buf.flip();
+            output.write(buf.array(), 0, buf.limit());
+            buf.clear();
+        }
+        return new String(output.toByteArray());
+    }
+
+    @Test
+    public void mergeByEndTime() throws IOException {
+        final MergedLogChannel ch = new MergedLogChannel(
+                asList(channel(HOST1), channel(HOST2)), 100);
+        final String[] lines = readAll(ch, 200).split("\n");
+        assertEquals(5, lines.length);
+        for (int i = 0; i < lines.length; ++i) {
+            assertEquals("2013-10-23T10:12:35." + (i + 1) + "00Z", lines[i].substring(25, 49));
+        }
+    }
+
+    @Test
+    public void mergeByEndTimeOfLayout() throws IOException {
+        final int endTimeOffset = LineFormat.parse(
+                "{request}|{end}|{start}|{service}|{caller}->{span}").getEndTimeOffset();
+        assertEquals(9, endTimeOffset);
+        final MergedLogChannel ch = new MergedLogChannel(asList(
+                channel(HOST1.replaceAll("(?m)^(\\S+) (\\S+) (\\S+) (\\S+) (\\S+)$",
+                        "$3|$2|$1|$4|$5")),
+                channel(HOST2.replaceAll("(?m)^(\\S+) (\\S+) (\\S+) (\\S+) (\\S+)$",
+                        "$3|$2|$1|$4|$5"))), 100, endTimeOffset);
+        final String[] lines = readAll(ch, 200).split("\n");
+        assertEquals(5, lines.length);
+        for (int i = 0; i < lines.length; ++i) {
+            assertEquals("2013-10-23T10:12:35." + (i + 1) + "00Z", lines[i].substring(9, 33));
+        }
+    }
+
+    @Test
+    public void skipLineLongerThanBuffer() throws IOException {
+        final MergedLogChannel ch = new MergedLogChannel(
+                asList(channel(HOST2), channel("too long line\n")), 75);
+        assertEquals("too long line\n" + HOST2, readAll(ch, 75));
+        final Metrics metrics = new Metrics(1);
+        final MergedLogChannel tooShort = new MergedLogChannel(
+                asList(channel(HOST2), channel("too long line\n")), 10,
+                MergedLogChannel.END_TIME_OFFSET, metrics.input());
+        assertEquals("", readAll(tooShort, 75));
+        assertEquals(3, metrics.get(Metrics.MALFORMED_LINES));
+    }
+
+    // caller keeps unparsed tail, so next line does not fit after it
+    @Test
+    public void passLineInPartsAfterLeftover() throws IOException {
+        final String expected = readAll(new MergedLogChannel(
+                asList(channel(HOST1), channel(HOST2)), 100), 200);
+        final MergedLogChannel ch = new MergedLogChannel(
+                asList(channel(HOST1), channel(HOST2)), 100);
+        final ByteBuffer buf = ByteBuffer.allocate(100);
+        buf.position(90);
+        assertEquals(10, ch.read(buf));
+        assertEquals(expected.substring(0, 10), new String(buf.array(), 90, 10));
+        assertEquals(expected.substring(10), readAll(ch, 30));
+    }
+
+    @Test
+    public void directoryInput() throws Exception {
+        final Path dir = Files.createTempDirectory("hosts");
+        try {
+            final String[] lines = INPUT.split("\n");
+            final StringBuilder odd = new StringBuilder();
+            final StringBuilder even = new StringBuilder();
+            for (int i = 0; i < lines.length; ++i) {
+                (i % 2 == 0 ? even : odd).append(lines[i]).append('\n');
+            }
+            Files.write(dir.resolve("host1.log"), odd.toString().getBytes());
+            Files.write(dir.resolve("host2.log"), even.toString().getBytes());
+            final CommandLineOptions options = new CommandLineOptions();
+            options.parse(new String[] {"-in", dir.toString()});
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            EntryPoint.run(options, options.getInputCh(), Channels.newChannel(output));
+            assertEquals(ShardedReconstructorTest.sorted(run()),
+                    ShardedReconstructorTest.sorted(new String(output.toByteArray())));
+        } finally {
+            Files.deleteIfExists(dir.resolve("host1.log"));
+            Files.deleteIfExists(dir.resolve("host2.log"));
+            Files.delete(dir);
+        }
+    }
+}
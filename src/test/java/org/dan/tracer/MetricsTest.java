@@ -0,0 +1,76 @@
+package org.dan.tracer;
+
+import static org.dan.tracer.ShardedReconstructorTest.INPUT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class MetricsTest {
+    @Test
+    public void sumSlotsAndMaxLatency() {
+        final Metrics metrics = new Metrics(2);
+        metrics.parser(0).add(Metrics.LINES, 3);
+        metrics.parser(1).add(Metrics.LINES, 4);
+        metrics.parser(0).max(Metrics.EMIT_LATENCY_MAX_MS, 10);
+        metrics.parser(1).max(Metrics.EMIT_LATENCY_MAX_MS, 7);
+        metrics.parser(1).set(Metrics.LIVE_REQUESTS, 5);
+        metrics.parser(1).set(Metrics.LIVE_REQUESTS, 2);
+        assertEquals(7, metrics.get(Metrics.LINES));
+        assertEquals(10, metrics.get(Metrics.EMIT_LATENCY_MAX_MS));
+        assertEquals(2, metrics.get(Metrics.LIVE_REQUESTS));
+    }
+
+    private static Map<String, Long> run(String input, String... args) throws Exception {
+        final Path dump = Files.createTempFile("metrics", ".txt");
+        try {
+            final String[] allArgs = new String[args.length + 2];
+            allArgs[0] = "-metrics";
+            allArgs[1] = dump.toString();
+            System.arraycopy(args, 0, allArgs, 2, args.length);
+            final CommandLineOptions options = new CommandLineOptions();
+            options.parse(allArgs);
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            EntryPoint.run(options, Channels.newChannel(
+                    new ByteArrayInputStream(input.getBytes())), Channels.newChannel(output));
+            final List<String> lines = Files.readAllLines(dump);
+            final Map<String, Long> result = new HashMap<>();
+            for (String line : lines) {
+                final String[] nameValue = line.split(" ");
+                result.put(nameValue[0], Long.parseLong(nameValue[1]));
+            }
+            assertEquals((Long) (long) output.size(), result.get("bytes_out"));
+            return result;
+        } finally {
+            Files.deleteIfExists(dump);
+        }
+    }
+
+    @Test
+    public void dumpCountersOfRun() throws Exception {
+        final String input = INPUT
+                + "2013-10-23T10:12:38.010Z 2013-10-23T10:12:38.519Z oooooooo service3 "
+                + "pppppppp=>qqqqqqqq\n"
+                + "2013-10-23T10:12:38.010Z 2013-10-23T10:12:38.519Z oooooooo service3 "
+                + "pppppppp->qqqqqqqq\n";
+        for (String threads : new String[] {"1", "2"}) {
+            final Map<String, Long> metrics = run(input, "-threads", threads);
+            assertEquals((Long) 7L, metrics.get("lines"));
+            assertEquals((Long) 1L, metrics.get("malformed_lines"));
+            assertEquals((Long) 3L, metrics.get("emitted_requests"));
+            assertEquals((Long) 1L, metrics.get("dropped_requests"));
+            assertEquals((Long) 0L, metrics.get("live_requests"));
+            assertEquals((Long) (long) input.length(), metrics.get("bytes_in"));
+            assertTrue(metrics.containsKey("input_stalls"));
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package org.dan.tracer;
+
+import static org.dan.tracer.ShardedReconstructorTest.INPUT;
+import static org.dan.tracer.ShardedReconstructorTest.run;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+
+public class ReadAheadChannelTest {
+    @Test
+    public void readEverythingInOrder() throws IOException {
+        final StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 1000; ++i) {
+            input.append(i).append(',');
+        }
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (ReadAheadChannel ch = new ReadAheadChannel(Channels.newChannel(
+                new ByteArrayInputStream(input.toString().getBytes())), 7, 2)) {
+            final ByteBuffer buf = ByteBuffer.allocate(5);
+            while (ch.read(buf) >= 0) {
+                buf.flip();
+                output.write(buf.array(), 0, buf.limit());
+                buf.clear();
+            }
+            assertEquals(-1, ch.read(buf));
+        }
+        assertEquals(input.toString(), new String(output.toByteArray()));
+    }
+
+    @Test
+    public void sameTracesAsSyncInput() throws Exception {
+        final CommandLineOptions options = new CommandLineOptions();
+        options.parse(new String[] {"-in-buffers", "2", "-rbuf", "200", "-max-line", "100"});
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        EntryPoint.run(options,
+                Channels.newChannel(new ByteArrayInputStream(INPUT.getBytes())),
+                Channels.newChannel(output));
+        assertEquals(run(), new String(output.toByteArray()));
+    }
+}
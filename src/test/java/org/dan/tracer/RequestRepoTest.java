@@ -9,7 +9,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.nio.ByteBuffer;
-import java.nio.channels.WritableByteChannel;
+import java.nio.ByteOrder;
 
 public class RequestRepoTest {
     public static final int SERVICE_ID = 1;
@@ -30,7 +30,7 @@ public class RequestRepoTest {
     public void autoEndSkip() {
         Request request = new Request(1);
         request.updateLastTimeStamp(100L);
-        requestRepo.getRequests().put(1L, request);
+        requestRepo.addRequest(request);
         requestRepo.autoEnd(101L, 5);
         assertEquals(1, requestRepo.getRequests().size());
     }
@@ -40,13 +40,13 @@ public class RequestRepoTest {
         int[] serialized = new int[1];
         Request request = new Request(1) {
             @Override
-            public int writeAsJson(WritableByteChannel outputCh, ByteBuffer outputBuf, Dictionary dictionary) {
+            public int write(TraceWriter writer) {
                 ++serialized[0];
                 return 1;
             }
         };
         request.updateLastTimeStamp(100L);
-        requestRepo.getRequests().put(1L, request);
+        requestRepo.addRequest(request);
         requestRepo.autoEnd(106L, 5);
         assertEquals(0, requestRepo.getRequests().size());
         assertEquals(1, serialized[0]);
@@ -85,4 +85,73 @@ public class RequestRepoTest {
         requestRepo.line(SERVICE_ID, REQUEST_ID, STARTED, ENDED, NULL_SPAN, SNAP_A);
         checkSnapsAB();
     }
+
+    @Test
+    public void emitLatencyFromLastLine() {
+        final Dictionary dictionary = Dictionary.create();
+        dictionary.add(ByteBuffer.wrap("service1".getBytes()));
+        requestRepo = new RequestRepo(dictionary, null,
+                ByteBuffer.allocate(1000).order(ByteOrder.LITTLE_ENDIAN));
+        requestRepo.setWallTime(1000);
+        requestRepo.line(SERVICE_ID, REQUEST_ID, STARTED, ENDED, NULL_SPAN, SNAP_A);
+        requestRepo.setWallTime(1300);
+        requestRepo.autoEnd(ENDED + 5, 5);
+        assertEquals(1, requestRepo.getEmitted());
+        assertEquals(0, requestRepo.getEmitLatencyMaxMs());
+        requestRepo.written(1500);
+        assertEquals(500, requestRepo.getEmitLatencyMaxMs());
+    }
+
+    private RequestRepo earlyEmittingRepo(SpanSlabs slabs) {
+        final Dictionary dictionary = Dictionary.create();
+        dictionary.add(ByteBuffer.wrap("service1".getBytes()));
+        final RequestRepo repo = new RequestRepo(dictionary, null,
+                ByteBuffer.allocate(1000).order(ByteOrder.LITTLE_ENDIAN), slabs);
+        repo.setEarlyEmitMs(10);
+        return repo;
+    }
+
+    private void emitCompleteRequestAfterGrace(SpanSlabs slabs) {
+        requestRepo = earlyEmittingRepo(slabs);
+        requestRepo.line(SERVICE_ID, REQUEST_ID, STARTED + 1, ENDED - 1, SNAP_A, SNAP_B);
+        requestRepo.line(SERVICE_ID, REQUEST_ID, STARTED, ENDED, NULL_SPAN, SNAP_A);
+        requestRepo.line(SERVICE_ID, REQUEST_ID + 1, STARTED, ENDED + 9, SNAP_A, SNAP_B);
+        assertEquals(0, requestRepo.getEmittedEarly());
+        requestRepo.line(SERVICE_ID, REQUEST_ID + 1, STARTED, ENDED + 10, SNAP_A, SNAP_B);
+        assertEquals(1, requestRepo.getEmittedEarly());
+        assertEquals(1, requestRepo.getRequests().size());
+        requestRepo.autoEnd(ENDED + 100, 5);
+        assertEquals(1, requestRepo.getEmitted());
+    }
+
+    @Test
+    public void emitCompleteRequestAfterGrace() {
+        emitCompleteRequestAfterGrace(null);
+    }
+
+    @Test
+    public void emitCompleteSlabRequestAfterGrace() {
+        emitCompleteRequestAfterGrace(new SpanSlabs());
+    }
+
+    @Test
+    public void emitCompleteRequestWhileLogIsIdle() {
+        requestRepo = earlyEmittingRepo(null);
+        requestRepo.line(SERVICE_ID, REQUEST_ID, STARTED, ENDED, NULL_SPAN, SNAP_A);
+        requestRepo.autoEnd(ENDED + 9, 1000);
+        assertEquals(0, requestRepo.getEmittedEarly());
+        requestRepo.autoEnd(ENDED + 10, 1000);
+        assertEquals(1, requestRepo.getEmittedEarly());
+        assertEquals(0, requestRepo.getRequests().size());
+    }
+
+    @Test
+    public void keepRequestWithUnloggedCaller() {
+        requestRepo = earlyEmittingRepo(null);
+        requestRepo.line(SERVICE_ID, REQUEST_ID, STARTED, ENDED, NULL_SPAN, SNAP_A);
+        requestRepo.line(SERVICE_ID, REQUEST_ID, STARTED + 1, ENDED, SNAP_B, SNAP_B + 1);
+        requestRepo.line(SERVICE_ID, REQUEST_ID + 1, STARTED, ENDED + 20, NULL_SPAN, SNAP_A);
+        assertEquals(0, requestRepo.getEmittedEarly());
+        assertEquals(2, requestRepo.getRequests().size());
+    }
 }
@@ -0,0 +1,37 @@
+package org.dan.tracer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class ShardOutputChannelTest {
+    @Test
+    public void abortReleasesLockOfBigRecord() throws Exception {
+        final Lock lock = new ReentrantLock();
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final ByteBuffer outputBuf = ByteBuffer.allocate(16);
+        final ShardOutputChannel ch = new ShardOutputChannel(
+                Channels.newChannel(output), lock, outputBuf);
+        outputBuf.put("big record".getBytes()).flip();
+        ch.write(outputBuf);
+        outputBuf.clear();
+        assertEquals("big record", output.toString("US-ASCII"));
+        ch.abort();
+        assertTrue(CompletableFuture.supplyAsync(() -> {
+            try {
+                return lock.tryLock(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }).get());
+    }
+}
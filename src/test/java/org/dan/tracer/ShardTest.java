@@ -0,0 +1,46 @@
+package org.dan.tracer;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class ShardTest {
+    private static final String LINE =
+            "2013-10-23T10:12:35.010Z 2013-10-23T10:12:35.519Z eckakaau service9 null->zfjlsiev\n";
+
+    // other shards parsed enough lines to check expired requests
+    @Test
+    public void expireByLinesOfAllShards() {
+        final CommandLineOptions options = new CommandLineOptions();
+        options.parse(new String[] {"-threads", "2", "-flush-check", "100"});
+        final long lineTime = Instant.parse("2013-10-23T10:12:35.519Z").toEpochMilli();
+        final Shard shard = new Shard(options, 0,
+                Channels.newChannel(new ByteArrayOutputStream()), new ReentrantLock(),
+                new AtomicLong(lineTime + MINUTES.toMillis(4)),
+                new AtomicLong(99));
+        shard.parse(ByteBuffer.wrap(LINE.getBytes()).order(LITTLE_ENDIAN));
+        assertEquals(1, options.getMetrics().get(Metrics.EMITTED_REQUESTS));
+    }
+
+    @Test
+    public void keepRequestsTillOwnLinesAreFew() {
+        final CommandLineOptions options = new CommandLineOptions();
+        options.parse(new String[] {"-threads", "2", "-flush-check", "100"});
+        final long lineTime = Instant.parse("2013-10-23T10:12:35.519Z").toEpochMilli();
+        final Shard shard = new Shard(options, 0,
+                Channels.newChannel(new ByteArrayOutputStream()), new ReentrantLock(),
+                new AtomicLong(lineTime + MINUTES.toMillis(4)),
+                new AtomicLong(0));
+        shard.parse(ByteBuffer.wrap(LINE.getBytes()).order(LITTLE_ENDIAN));
+        assertEquals(0, options.getMetrics().get(Metrics.EMITTED_REQUESTS));
+    }
+}
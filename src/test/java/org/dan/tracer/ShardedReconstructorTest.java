@@ -0,0 +1,187 @@
+package org.dan.tracer;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ShardedReconstructorTest {
+    static final String INPUT =
+            "2013-10-23T10:12:35.271Z 2013-10-23T10:12:35.471Z eckakaau service6 zfjlsiev->d6m3shqy\n"
+            + "2013-10-23T10:12:35.293Z 2013-10-23T10:12:35.302Z eckakaau service7 zfjlsiev->22buxmqp\n"
+            + "2013-10-23T10:12:35.010Z 2013-10-23T10:12:35.519Z eckakaau service9 null->zfjlsiev\n"
+            + "2013-10-23T10:12:36.010Z 2013-10-23T10:12:36.519Z aaaaaaaa service1 null->bbbbbbbb\n"
+            + "2013-10-23T10:12:36.110Z 2013-10-23T10:12:36.419Z aaaaaaaa service2 bbbbbbbb->cccccccc\n"
+            + "2013-10-23T10:12:37.010Z 2013-10-23T10:12:37.519Z zzzzzzzz service3 null->yyyyyyyy\n";
+
+    @Test
+    public void sameTracesAsSingleThread() throws Exception {
+        assertEquals(sorted(run("-threads", "1")), sorted(run("-threads", "3")));
+    }
+
+    @Test
+    public void sameTracesWithEarlyEmit() throws Exception {
+        assertEquals(sorted(run()), sorted(run("-early-emit", "200")));
+        assertEquals(sorted(run()), sorted(run("-early-emit", "200", "-threads", "2")));
+    }
+
+    @Test
+    public void sameTracesWithInputFormat() throws Exception {
+        final String input = INPUT.replaceAll(
+                "(?m)^(\\S+) (\\S+) (\\S+) (\\S+) (\\S+)$", "$3|$1|$2|$4|$5");
+        final String format = "{request}|{start}|{end}|{service}|{caller}->{span}";
+        assertEquals(sorted(run()), sorted(runInput(input, "-in-format", format)));
+        assertEquals(sorted(run()), sorted(runInput(input, "-in-format", format,
+                "-threads", "2")));
+    }
+
+    @Test
+    public void skipShortLine() throws Exception {
+        assertEquals(3, runInput(INPUT.replace("\n2013-10-23T10:12:36.010Z",
+                "\nbroken line\n2013-10-23T10:12:36.010Z"),
+                "-threads", "2").split("\n").length);
+    }
+
+    @Test
+    public void countLinesDroppedByReader() throws Exception {
+        final CommandLineOptions options = new CommandLineOptions();
+        options.parse(new String[] {"-threads", "2"});
+        new ShardedReconstructor(options,
+                Channels.newChannel(new ByteArrayInputStream(
+                        ("broken line\n" + INPUT + "x\n").getBytes())),
+                Channels.newChannel(new ByteArrayOutputStream()))
+                .reconstructTraces();
+        assertEquals(2, options.getMetrics().get(Metrics.MALFORMED_LINES));
+    }
+
+    @Test(timeout = 10000)
+    public void stopWorkersOnInputFailure() throws Exception {
+        final CommandLineOptions options = new CommandLineOptions();
+        options.parse(new String[] {"-threads", "3"});
+        final ReadableByteChannel failingCh = new ReadableByteChannel() {
+            public int read(ByteBuffer dst) throws IOException {
+                throw new IOException("corrupt input");
+            }
+
+            public boolean isOpen() {
+                return true;
+            }
+
+            public void close() {
+            }
+        };
+        try {
+            new ShardedReconstructor(options, failingCh,
+                    Channels.newChannel(new ByteArrayOutputStream())).reconstructTraces();
+            throw new AssertionError("failure is lost");
+        } catch (IOException e) {
+            assertEquals("corrupt input", e.getMessage());
+        }
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            assertFalse(thread.getName(), thread.getName().startsWith("shard-"));
+        }
+    }
+
+    // failed shard keeps taking batches of input following the failure
+    @Test(timeout = 10000)
+    public void failOnOutputFailureWhileIdle() throws Exception {
+        final CommandLineOptions options = new CommandLineOptions();
+        options.parse(new String[] {"-threads", "2", "-max-latency", "20", "-early-emit", "0"});
+        final ReadableByteChannel slowCh = new ReadableByteChannel() {
+            private int reads;
+
+            public int read(ByteBuffer dst) throws IOException {
+                ++reads;
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                if (reads > 100 && reads < 400 || reads == 1) {
+                    dst.put(INPUT.getBytes());
+                    return INPUT.length();
+                }
+                return reads < 400 ? 0 : -1;
+            }
+
+            public boolean isOpen() {
+                return true;
+            }
+
+            public void close() {
+            }
+        };
+        final WritableByteChannel failingCh = new WritableByteChannel() {
+            public int write(ByteBuffer src) throws IOException {
+                throw new IOException("disk full");
+            }
+
+            public boolean isOpen() {
+                return true;
+            }
+
+            public void close() {
+            }
+        };
+        try {
+            new ShardedReconstructor(options, slowCh, failingCh).reconstructTraces();
+            throw new AssertionError("failure is lost");
+        } catch (RuntimeException e) {
+            assertEquals("disk full", e.getCause().getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void shardOfIsStable() {
+        for (long id : asList(0L, 1L, -1L, Long.MAX_VALUE, Long.MIN_VALUE)) {
+            final int shard = ShardedReconstructor.shardOf(id, 7);
+            assertEquals(shard, ShardedReconstructor.shardOf(id, 7));
+            assertEquals(true, shard >= 0 && shard < 7);
+        }
+    }
+
+    static List<String> sorted(String output) {
+        final List<String> lines = new ArrayList<>(asList(output.split("\n")));
+        lines.sort(String::compareTo);
+        return lines;
+    }
+
+    static String run(String... args) throws IOException, InterruptedException {
+        return runInput(INPUT, args);
+    }
+
+    static String runInput(String input, String... args) throws IOException, InterruptedException {
+        final CommandLineOptions options = new CommandLineOptions();
+        options.parse(args);
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        if (options.getThreads() > 1) {
+            new ShardedReconstructor(options,
+                    Channels.newChannel(new ByteArrayInputStream(input.getBytes())),
+                    Channels.newChannel(output))
+                    .reconstructTraces();
+        } else {
+            final Dictionary dictionary = Dictionary.create();
+            final ByteBuffer outputBuf = ByteBuffer.allocate(1000).order(LITTLE_ENDIAN);
+            final RequestRepo repo = new RequestRepo(dictionary,
+                    Channels.newChannel(output), outputBuf);
+            EntryPoint.reconstructTraces(options,
+                    Channels.newChannel(new ByteArrayInputStream(input.getBytes())),
+                    Channels.newChannel(output), outputBuf, repo,
+                    options.newLogLineParser(dictionary, repo),
+                    ByteBuffer.allocate(1000).order(LITTLE_ENDIAN));
+        }
+        return new String(output.toByteArray());
+    }
+}
@@ -0,0 +1,124 @@
+package org.dan.tracer;
+
+import static org.dan.tracer.LogLineParser.NULL_SPAN;
+import static org.dan.tracer.LogLineParserTest.asLong;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class SlabRequestTest {
+    private static final long REQUEST_ID = asLong("12345678");
+
+    private Dictionary dictionary;
+    private SpanSlabs slabs;
+
+    @Before
+    public void setUp() {
+        dictionary = Dictionary.create();
+        dictionary.add(ByteBuffer.wrap("service1".getBytes()));
+        dictionary.add(ByteBuffer.wrap("service2".getBytes()));
+        slabs = new SpanSlabs(1);
+    }
+
+    static void lines(Request request) {
+        request.addLine(2, 5, 7, asLong("aaaaaaaa"), asLong("cccccccc"));
+        request.addLine(1, 1, 30, NULL_SPAN, asLong("aaaaaaaa"));
+        request.addLine(2, 4, 5, asLong("aaaaaaaa"), asLong("bbbbbbbb"));
+        for (int i = 0; i < 40; ++i) {
+            request.addLine(1, 10 + i, 11 + i, asLong("bbbbbbbb"), 1000 + i);
+        }
+        request.addLine(2, 8, 9, asLong("aaaaaaaa"), asLong("dddddddd"));
+    }
+
+    private String json(Request request) {
+        final ByteBuffer buffer = ByteBuffer.allocate(10000).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(1, request.writeAsJson(null, buffer, dictionary));
+        buffer.flip();
+        return new String(buffer.array(), 0, buffer.limit());
+    }
+
+    @Test
+    public void sameJsonAsSpanObjects() {
+        final Request objects = new Request(REQUEST_ID);
+        lines(objects);
+        final SlabRequest columns = new SlabRequest(REQUEST_ID, slabs);
+        lines(columns);
+        assertEquals(45, columns.getSpans());
+        assertEquals(json(objects), json(columns));
+    }
+
+    @Test
+    public void dropWithoutRoot() {
+        final SlabRequest request = new SlabRequest(REQUEST_ID, slabs);
+        request.addLine(2, 5, 7, asLong("aaaaaaaa"), asLong("cccccccc"));
+        final ByteBuffer buffer = ByteBuffer.allocate(1000);
+        assertEquals(0, request.writeAsJson(null, buffer, dictionary));
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void reuseReleasedSlabs() {
+        for (int i = 0; i < 10; ++i) {
+            final SlabRequest request = new SlabRequest(REQUEST_ID, slabs);
+            lines(request);
+            json(request);
+            request.release();
+        }
+        assertEquals(3, slabs.getAllocatedSlabs());
+    }
+
+    @Test
+    public void repeatedLineIsLinkedAgain() {
+        final SlabRequest request = new SlabRequest(REQUEST_ID, slabs);
+        request.addLine(1, 1, 30, NULL_SPAN, asLong("aaaaaaaa"));
+        request.addLine(2, 4, 5, asLong("aaaaaaaa"), asLong("bbbbbbbb"));
+        assertEquals(2, request.addLine(2, 4, 5, asLong("aaaaaaaa"), asLong("bbbbbbbb")));
+    }
+
+    @Test
+    public void repeatedLinesSameAsSpanObjects() {
+        final Request objects = new Request(REQUEST_ID);
+        final SlabRequest columns = new SlabRequest(REQUEST_ID, slabs);
+        for (Request request : new Request[] {objects, columns}) {
+            lines(request);
+            request.addLine(2, 4, 5, asLong("aaaaaaaa"), asLong("bbbbbbbb"));
+            request.addLine(2, 6, 8, asLong("aaaaaaaa"), asLong("cccccccc"));
+            assertEquals(6, request.addLine(2, 2, 3, asLong("aaaaaaaa"), 1005));
+        }
+        assertEquals(json(objects), json(columns));
+    }
+
+    @Test
+    public void spanUnderSeveralCallers() {
+        final Request objects = new Request(REQUEST_ID);
+        final SlabRequest columns = new SlabRequest(REQUEST_ID, slabs);
+        for (Request request : new Request[] {objects, columns}) {
+            request.addLine(1, 1, 30, NULL_SPAN, asLong("aaaaaaaa"));
+            request.addLine(2, 4, 5, asLong("aaaaaaaa"), asLong("bbbbbbbb"));
+            request.addLine(2, 6, 8, asLong("aaaaaaaa"), asLong("cccccccc"));
+            request.addLine(2, 7, 8, asLong("cccccccc"), asLong("bbbbbbbb"));
+        }
+        final String json = json(columns);
+        assertEquals(json(objects), json);
+        assertEquals(3, json.split("\"start\":\"1970-01-01 00:00:00.007\"", -1).length);
+    }
+
+    @Test
+    public void cutCycleThroughRoot() {
+        final Request objects = new Request(REQUEST_ID);
+        final SlabRequest columns = new SlabRequest(REQUEST_ID, slabs);
+        for (Request request : new Request[] {objects, columns}) {
+            request.addLine(1, 1, 30, NULL_SPAN, asLong("aaaaaaaa"));
+            request.addLine(2, 4, 5, asLong("aaaaaaaa"), asLong("bbbbbbbb"));
+            request.addLine(2, 6, 8, asLong("bbbbbbbb"), asLong("aaaaaaaa"));
+            request.addLine(2, 7, 8, asLong("bbbbbbbb"), NULL_SPAN);
+        }
+        final String json = json(columns);
+        assertEquals(json(objects), json);
+        assertEquals(1, json.split("\"calls\"", -1).length - 2);
+    }
+}
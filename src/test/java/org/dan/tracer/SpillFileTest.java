@@ -0,0 +1,164 @@
+package org.dan.tracer;
+
+import static org.dan.tracer.ShardedReconstructorTest.runInput;
+import static org.dan.tracer.ShardedReconstructorTest.sorted;
+import static org.dan.tracer.LogLineParser.NULL_SPAN;
+import static org.dan.tracer.LogLineParserTest.asLong;
+import static org.dan.tracer.SlabRequestTest.lines;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+
+public class SpillFileTest {
+    private Dictionary dictionary;
+    private SpillFile spillFile;
+
+    @Before
+    public void setUp() throws IOException {
+        dictionary = Dictionary.create();
+        dictionary.add(ByteBuffer.wrap("service1".getBytes()));
+        dictionary.add(ByteBuffer.wrap("service2".getBytes()));
+        spillFile = new SpillFile(Paths.get(System.getProperty("java.io.tmpdir")),
+                3 * SpillFile.LINE_BYTES);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        spillFile.close();
+    }
+
+    private String json(Request request) {
+        final ByteBuffer buffer = ByteBuffer.allocate(10000).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(1, request.writeAsJson(null, buffer, dictionary));
+        buffer.flip();
+        return new String(buffer.array(), 0, buffer.limit());
+    }
+
+    private void reloadSameTree(Request request, Request other) {
+        lines(request);
+        lines(other);
+        final String expected = json(request);
+        final String otherExpected = json(other);
+        spillFile.spill(request);
+        spillFile.spill(other);
+        assertTrue(request.isSpilled());
+        assertEquals(0, request.getSpans());
+        assertEquals(2, spillFile.getSpilled());
+        spillFile.reload(request);
+        assertFalse(request.isSpilled());
+        assertTrue(request.isComplete());
+        assertEquals(expected, json(request));
+        spillFile.spill(request);
+        spillFile.reload(other);
+        spillFile.reload(request);
+        assertEquals(0, spillFile.getSpilled());
+        assertEquals(expected, json(request));
+        assertEquals(otherExpected, json(other));
+    }
+
+    @Test
+    public void reloadSpanObjects() {
+        reloadSameTree(new Request(1), new Request(2));
+    }
+
+    @Test
+    public void reloadSlabs() {
+        final SpanSlabs slabs = new SpanSlabs(1);
+        reloadSameTree(new SlabRequest(1, slabs), new SlabRequest(2, slabs));
+    }
+
+    @Test
+    public void reloadSlabSpanUnderSeveralCallers() {
+        final SlabRequest request = new SlabRequest(1, new SpanSlabs(1));
+        lines(request);
+        request.addLine(2, 5, 7, asLong("aaaaaaaa"), asLong("cccccccc"));
+        request.addLine(2, 6, 8, asLong("dddddddd"), asLong("cccccccc"));
+        final String expected = json(request);
+        spillFile.spill(request);
+        spillFile.reload(request);
+        assertEquals(expected, json(request));
+    }
+
+    @Test
+    public void appendLinesOfSpilledRequest() {
+        final Request request = new Request(1);
+        final Request expected = new Request(1);
+        lines(expected);
+        request.addLine(1, 1, 30, NULL_SPAN, asLong("aaaaaaaa"));
+        spillFile.spill(request);
+        spillFile.spill(new Request(2));
+        spillFile.append(request, asLong("aaaaaaaa"), asLong("cccccccc"), 2, 5, 7);
+        spillFile.append(request, asLong("aaaaaaaa"), asLong("bbbbbbbb"), 2, 4, 5);
+        for (int i = 0; i < 40; ++i) {
+            spillFile.append(request, asLong("bbbbbbbb"), 1000 + i, 1, 10 + i, 11 + i);
+        }
+        spillFile.append(request, asLong("aaaaaaaa"), asLong("dddddddd"), 2, 8, 9);
+        assertEquals(1, request.getSpillSegments());
+        assertFalse(request.isComplete());
+        spillFile.reload(request);
+        assertTrue(request.isComplete());
+        assertEquals(json(expected), json(request));
+    }
+
+    @Test
+    public void compactReloadedLines() {
+        final Request live = new Request(1);
+        lines(live);
+        final String expected = json(live);
+        spillFile.spill(live);
+        for (int i = 0; i < 5; ++i) {
+            final Request reloaded = new Request(2 + i);
+            lines(reloaded);
+            spillFile.spill(reloaded);
+            spillFile.reload(reloaded);
+        }
+        assertTrue(spillFile.isWasteful());
+        final SpillFile compacted = spillFile.compact(Collections.singletonList(live));
+        try {
+            assertFalse(compacted.isWasteful());
+            assertEquals(1, compacted.getSpilled());
+            compacted.reload(live);
+            assertEquals(expected, json(live));
+        } finally {
+            spillFile = compacted;
+        }
+    }
+
+    @Test
+    public void sameTracesWithSpill() throws Exception {
+        final ByteBuffer generated = new LogGenerator(1, 10, 5, 20).generate(3000);
+        final String log = new String(generated.array(), 0, generated.limit());
+        final List<String> expected = sorted(runInput(log));
+        assertEquals(expected, sorted(runInput(log, "-max-heap-spans", "100")));
+        assertEquals(expected, sorted(runInput(log, "-max-heap-spans", "100", "-columnar")));
+    }
+
+    @Test
+    public void keepHeapSpansInBudget() throws IOException {
+        final RequestRepo repo = new RequestRepo(dictionary, null,
+                ByteBuffer.allocate(1000000).order(ByteOrder.LITTLE_ENDIAN));
+        repo.setSpillFile(spillFile, 100);
+        final LogLineParser parser = new LogLineParser(dictionary, repo);
+        final ByteBuffer input = new LogGenerator(1, 10, 5, 20).generate(1000);
+        while (input.hasRemaining()) {
+            parser.parse(input);
+            assertTrue(repo.getHeapSpans() <= 100);
+        }
+        assertTrue(repo.getSpillFile().getSpilled() > 0);
+        repo.autoEnd(Long.MAX_VALUE / 2, 0);
+        assertEquals(0, repo.getSpillFile().getSpilled());
+        assertEquals(0, repo.getHeapSpans());
+        repo.close();
+    }
+}
@@ -0,0 +1,57 @@
+package org.dan.tracer;
+
+import static java.nio.ByteOrder.BIG_ENDIAN;
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+public class SwarTest {
+    private static int naive(byte[] bytes, int from, int to, byte b, byte other) {
+        for (int i = from; i < to; ++i) {
+            if (bytes[i] == b || bytes[i] == other) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void sameAsByteLoop() {
+        final byte[] alphabet = {' ', '\n', 'a', (byte) 0x80, (byte) 0xa0, (byte) 0x8a, 0, 0x21};
+        final Random random = new Random(1);
+        for (ByteOrder order : new ByteOrder[] {LITTLE_ENDIAN, BIG_ENDIAN}) {
+            for (int round = 0; round < 10000; ++round) {
+                final byte[] bytes = new byte[random.nextInt(40)];
+                for (int i = 0; i < bytes.length; ++i) {
+                    bytes[i] = alphabet[random.nextInt(alphabet.length)];
+                }
+                final ByteBuffer buf = ByteBuffer.wrap(bytes).order(order);
+                final int from = bytes.length == 0 ? 0 : random.nextInt(bytes.length);
+                assertEquals(naive(bytes, from, bytes.length, (byte) ' ', (byte) '\n'),
+                        Swar.indexOf(buf, from, bytes.length, Swar.SPACES, Swar.LINE_ENDS));
+                assertEquals(naive(bytes, from, bytes.length, (byte) '\n', (byte) '\n'),
+                        Swar.indexOf(buf, from, bytes.length, Swar.LINE_ENDS));
+            }
+        }
+    }
+
+    @Test
+    public void digitsMismatchEveryByte() {
+        final long mask = Swar.digitMask("dd:d");
+        final long text = Swar.layoutText("dd:d");
+        for (int b = 0; b < 256; ++b) {
+            final boolean digit = b >= '0' && b <= '9';
+            final long word = LogLineParserTest.asLong("12:3\0\0\0\0");
+            assertEquals(digit, Swar.digitsMismatch(word & ~0xffL | b, mask, text) == 0);
+            assertEquals(b == ':', Swar.digitsMismatch(word & ~0xff0000L | (long) b << 16,
+                    mask, text) == 0);
+        }
+        assertEquals(123, Swar.digits(LogLineParserTest.asLong("12:3\0\0\0\0"), 0, 2) * 10
+                + Swar.digits(LogLineParserTest.asLong("12:3\0\0\0\0"), 3, 1));
+    }
+}
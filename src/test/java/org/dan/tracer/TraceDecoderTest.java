@@ -0,0 +1,57 @@
+package org.dan.tracer;
+
+import static org.dan.tracer.ShardedReconstructorTest.INPUT;
+import static org.dan.tracer.ShardedReconstructorTest.run;
+import static org.dan.tracer.ShardedReconstructorTest.sorted;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+
+public class TraceDecoderTest {
+    private static byte[] encode(String... args) throws Exception {
+        final CommandLineOptions options = new CommandLineOptions();
+        options.parse(args);
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        EntryPoint.run(options,
+                Channels.newChannel(new ByteArrayInputStream(INPUT.getBytes())),
+                Channels.newChannel(output));
+        return output.toByteArray();
+    }
+
+    private static String decode(byte[] binary) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new TraceDecoder(Channels.newChannel(new ByteArrayInputStream(binary)),
+                Channels.newChannel(output), 100).decode();
+        return new String(output.toByteArray());
+    }
+
+    @Test
+    public void decodeToSameJson() throws Exception {
+        final byte[] binary = encode("-out-format", "binary");
+        final String json = run();
+        assertEquals(json, decode(binary));
+        assertTrue(binary.length < json.length() / 2);
+    }
+
+    @Test
+    public void decodeShardDictionaries() throws Exception {
+        assertEquals(sorted(run()),
+                sorted(decode(encode("-out-format", "binary", "-threads", "3"))));
+    }
+
+    @Test
+    public void decodeSlabSpans() throws Exception {
+        assertEquals(run(), decode(encode("-out-format", "binary", "-columnar")));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectJson() throws Exception {
+        decode(run().getBytes());
+    }
+}